@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+/*
+    Checks that a selected item follows its id through reloads with an adapter that looks ids
+    up, as the forecast list's does, including reloads that don't show it at first.
+ */
+public class TestItemChoiceManager extends AndroidTestCase {
+
+    private static final long FIRST_ID = 1000;
+
+    // Items with the ids FIRST_ID + first, ..., FIRST_ID + first + count - 1
+    static class IdAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
+            implements ItemChoiceManager.PositionLookup {
+        int mFirst;
+        int mCount;
+
+        IdAdapter() {
+            setHasStableIds(true);
+        }
+
+        void show(int first, int count) {
+            mFirst = first;
+            mCount = count;
+        }
+
+        @Override
+        public int getItemCount() {
+            return mCount;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return FIRST_ID + mFirst + position;
+        }
+
+        @Override
+        public int getPositionForId(long id) {
+            long position = id - FIRST_ID - mFirst;
+            return position >= 0 && position < mCount
+                    ? (int) position : RecyclerView.NO_POSITION;
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /*
+        A choice manager with the item at this position selected, as it's restored after a
+        rotation.
+     */
+    private static ItemChoiceManager restoreSelection(IdAdapter adapter, int position) {
+        ItemChoiceManager saved = new ItemChoiceManager(adapter);
+        saved.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        saved.mCheckStates.put(position, true);
+        saved.mCheckedIdStates.put(adapter.getItemId(position), position);
+        Bundle state = new Bundle();
+        saved.onSaveInstanceState(state);
+
+        ItemChoiceManager restored = new ItemChoiceManager(adapter);
+        restored.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        restored.onRestoreInstanceState(state);
+        return restored;
+    }
+
+    public void testSelectionSurvivesPartialReload() {
+        IdAdapter adapter = new IdAdapter();
+        adapter.show(0, 40);
+        ItemChoiceManager icm = restoreSelection(adapter, 30);
+
+        // The first page comes back first, without the selected item
+        adapter.show(0, 20);
+        icm.confirmCheckedPositionsById(40);
+        assertEquals("Selected item should not show while it isn't loaded",
+                RecyclerView.NO_POSITION, icm.getSelectedItemPosition());
+
+        // Then the rest
+        adapter.show(0, 40);
+        icm.confirmCheckedPositionsById(20);
+        assertEquals("Selected item should show again once it's loaded",
+                30, icm.getSelectedItemPosition());
+        assertTrue(icm.isItemChecked(30));
+    }
+
+    public void testSelectionSurvivesEmptyReloadAndMove() {
+        IdAdapter adapter = new IdAdapter();
+        adapter.show(0, 40);
+        ItemChoiceManager icm = restoreSelection(adapter, 30);
+
+        // A loader reset empties the adapter before the reload
+        adapter.show(0, 0);
+        icm.confirmCheckedPositionsById(40);
+        assertEquals(RecyclerView.NO_POSITION, icm.getSelectedItemPosition());
+
+        // The reload starts a day later, so the selected item moved up one
+        adapter.show(1, 40);
+        icm.confirmCheckedPositionsById(0);
+        assertEquals("Selected item should follow its id", 29, icm.getSelectedItemPosition());
+        assertFalse(icm.isItemChecked(30));
+    }
+}
@@ -17,6 +17,7 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
@@ -55,6 +56,12 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherCodec.TABLE_DATA);
+        tableNameHashSet.add(WeatherCodec.TABLE_DESCRIPTIONS);
+        tableNameHashSet.add(WeatherSummaries.TABLE_DATA);
+        tableNameHashSet.add(WeatherSummaries.TABLE_ARCHIVE);
+        tableNameHashSet.add(WeatherContract.SummaryEntry.TABLE_NAME);
+        tableNameHashSet.add(LocationSearch.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -62,7 +69,9 @@ public class TestDb extends AndroidTestCase {
         assertEquals(true, db.isOpen());
 
         // have we created the tables we want?
-        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+        // (weather is a view over the compact weather tables)
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type IN ('table', 'view')",
+                null);
 
         assertTrue("Error: This means that the database has not been created correctly",
                 c.moveToFirst());
@@ -91,6 +100,7 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_RETENTION_DAYS);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -145,7 +155,7 @@ public class TestDb extends AndroidTestCase {
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
         // Third Step (Weather): Insert ContentValues into database and get a row ID back
-        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherCodec.insert(db, weatherValues);
         assertTrue(weatherRowId != -1);
 
         // Fourth Step: Query the database and receive a Cursor back
@@ -234,4 +244,88 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    /*
+        The current forecast is kept by triggers, so writing weather and location directly
+        should be enough to keep it in step with their join.
+     */
+    public void testCurrentForecastTable() {
+        long locationRowId = insertLocation();
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        long weatherRowId = WeatherCodec.insert(db, weatherValues);
+        assertTrue("Error: Failure to insert weather", weatherRowId != -1);
+
+        Cursor cursor = db.query(WeatherDbHelper.TABLE_CURRENT_FORECAST,
+                null, null, null, null, null, null);
+        assertTrue("Error: Inserting weather did not add it to the current forecast",
+                cursor.moveToFirst());
+        ContentValues expectedValues = new ContentValues(weatherValues);
+        expectedValues.putAll(TestUtilities.createNorthPoleLocationValues());
+        expectedValues.put(WeatherContract.WeatherEntry._ID, weatherRowId);
+        TestUtilities.validateCurrentRecord("Error: Current forecast does not match the join",
+                cursor, expectedValues);
+        cursor.close();
+
+        // Location changes must reach the rows that copied them
+        ContentValues cityValues = new ContentValues();
+        cityValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        db.update(WeatherContract.LocationEntry.TABLE_NAME, cityValues, null, null);
+        cursor = db.query(WeatherDbHelper.TABLE_CURRENT_FORECAST,
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_NAME},
+                null, null, null, null, null);
+        assertTrue("Error: Updating a location dropped its current forecast", cursor.moveToFirst());
+        assertEquals("Error: Current forecast did not pick up the new city name",
+                "Santa's Village", cursor.getString(0));
+        cursor.close();
+
+        db.delete(WeatherCodec.TABLE_DATA, null, null);
+        cursor = db.query(WeatherDbHelper.TABLE_CURRENT_FORECAST,
+                null, null, null, null, null, null);
+        assertEquals("Error: Deleting weather did not remove it from the current forecast",
+                0, cursor.getCount());
+        cursor.close();
+        db.close();
+    }
+
+    /*
+        Weather is stored as fixed point integers with a shared description dictionary, and
+        should read back through the weather view exactly as it was written.
+     */
+    public void testCompactWeatherStorage() {
+        long locationRowId = insertLocation();
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        ContentValues firstDay = TestUtilities.createWeatherValues(locationRowId);
+        ContentValues secondDay = TestUtilities.createWeatherValues(locationRowId);
+        secondDay.put(WeatherContract.WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 1000);
+        secondDay.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, -12.34);
+        secondDay.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1013.25);
+        long firstRowId = WeatherCodec.insert(db, firstDay);
+        long secondRowId = WeatherCodec.insert(db, secondDay);
+        assertTrue("Error: Failure to insert weather", firstRowId != -1 && secondRowId != -1);
+        assertFalse("Error: Two days were given the same _id", firstRowId == secondRowId);
+
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Wrong number of weather rows", 2, cursor.getCount());
+        cursor.moveToFirst();
+        firstDay.put(WeatherContract.WeatherEntry._ID, firstRowId);
+        TestUtilities.validateCurrentRecord("Error: First day did not read back", cursor, firstDay);
+        cursor.moveToNext();
+        secondDay.put(WeatherContract.WeatherEntry._ID, secondRowId);
+        TestUtilities.validateCurrentRecord("Error: Second day did not read back", cursor, secondDay);
+        cursor.close();
+
+        // Both days share one description, and every measurement is stored as an integer
+        assertEquals("Error: Descriptions were not shared", 1,
+                DatabaseUtils.longForQuery(db,
+                        "SELECT COUNT(*) FROM " + WeatherCodec.TABLE_DESCRIPTIONS, null));
+        assertEquals("Error: Measurements were not stored as integers", 0,
+                DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + WeatherCodec.TABLE_DATA +
+                        " WHERE typeof(" + WeatherCodec.COLUMN_MIN_TEMP + ") != 'integer'" +
+                        " OR typeof(" + WeatherCodec.COLUMN_PRESSURE + ") != 'integer'", null));
+        db.close();
+    }
 }
@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+
+/*
+    Rough throughput numbers for the hot paths of the data layer.  Results are logged under
+    this class's tag rather than asserted, since they depend on the device; the assertions only
+    check that each run did the work it claims to have measured.
+ */
+public class TestPerformance extends AndroidTestCase {
+    public static final String LOG_TAG = TestPerformance.class.getSimpleName();
+
+    private static final int DAYS_PER_LOCATION = 14;
+    private static final int[] LOCATION_COUNTS = {1, 10, 50};
+    private static final int ROUNDS = 5;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long[] insertLocations(int count) {
+        long[] locationIds = new long[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + "-" + i);
+            locationIds[i] = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+        }
+        return locationIds;
+    }
+
+    private static long rowsPerSecond(int rows, long elapsedNanos) {
+        return elapsedNanos > 0 ? rows * 1000000000L / elapsedNanos : 0;
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /*
+        Two weeks of forecast for N locations, written the way a sync writes them: once through
+        bulkInsert with ContentValues, and once through the provider's ingest path.  Each round
+        rewrites the same days, so every round after the first replaces existing rows.
+     */
+    public void testIngestThroughput() throws Exception {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        WeatherRowBuffer rows = new WeatherRowBuffer();
+
+        try {
+            for (int locationCount : LOCATION_COUNTS) {
+                long[] locationIds = insertLocations(locationCount);
+                int rowCount = locationCount * DAYS_PER_LOCATION;
+
+                long bulkInsertNanos = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    ContentValues[] values = new ContentValues[rowCount];
+                    for (int i = 0; i < rowCount; i++) {
+                        values[i] = TestUtilities.createWeatherValues(
+                                locationIds[i / DAYS_PER_LOCATION]);
+                        values[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE
+                                + (i % DAYS_PER_LOCATION) * DAY_IN_MILLIS);
+                    }
+                    long start = System.nanoTime();
+                    provider.bulkInsert(WeatherEntry.CONTENT_URI, values);
+                    bulkInsertNanos += System.nanoTime() - start;
+                }
+                assertEquals("Error: bulkInsert wrote the wrong number of rows",
+                        rowCount, countWeather());
+
+                long ingestNanos = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    rows.clear();
+                    for (int i = 0; i < rowCount; i++) {
+                        rows.add(locationIds[i / DAYS_PER_LOCATION],
+                                TestUtilities.TEST_DATE + (i % DAYS_PER_LOCATION) * DAY_IN_MILLIS,
+                                321, "Asteroids", 65, 75, 1.2, 1.3, 5.5, 1.1);
+                    }
+                    long start = System.nanoTime();
+                    provider.ingest(rows, new ArrayList<ContentProviderOperation>());
+                    ingestNanos += System.nanoTime() - start;
+                }
+                assertEquals("Error: ingest wrote the wrong number of rows",
+                        rowCount, countWeather());
+
+                Log.i(LOG_TAG, "Ingest of " + DAYS_PER_LOCATION + " days x " + locationCount
+                        + " locations: bulkInsert "
+                        + rowsPerSecond(rowCount * ROUNDS, bulkInsertNanos)
+                        + " rows/s, ingest " + rowsPerSecond(rowCount * ROUNDS, ingestNanos)
+                        + " rows/s");
+                deleteAllRecords();
+            }
+        } finally {
+            client.release();
+        }
+    }
+
+    /*
+        Date normalization runs once per inserted row and once per location/date uri built for
+        a query.  Compares the Time based arithmetic it used to do with SunshineCalendar.
+     */
+    public void testDateNormalizationThroughput() {
+        final int iterations = 100000;
+        long[] timeDates = new long[iterations];
+        long[] calendarDates = new long[iterations];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            timeDates[i] = TestSunshineCalendar.timeNormalizeDate(
+                    TestUtilities.TEST_DATE + i * 60 * 1000L);
+        }
+        long timeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            calendarDates[i] = SunshineCalendar.normalizeDate(
+                    TestUtilities.TEST_DATE + i * 60 * 1000L);
+        }
+        long calendarNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < iterations; i++) {
+            assertEquals("Error: Time and SunshineCalendar disagree on "
+                    + (TestUtilities.TEST_DATE + i * 60 * 1000L), timeDates[i], calendarDates[i]);
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                    TestUtilities.TEST_DATE + i * 60 * 1000L);
+        }
+        long uriNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "normalizeDate: Time " + rowsPerSecond(iterations, timeNanos)
+                + " dates/s, SunshineCalendar " + rowsPerSecond(iterations, calendarNanos)
+                + " dates/s; buildWeatherLocationWithDate " + rowsPerSecond(iterations, uriNanos)
+                + " uris/s");
+    }
+
+    /*
+        The hottest read: one location's forecast from today on.  Compares the weather/location
+        join it used to be with the current forecast table that serves it now, straight against
+        the database so the provider's query cache stays out of the way.
+     */
+    public void testForecastReadLatency() {
+        final int locationCount = 50;
+        final int iterations = 500;
+        long[] locationIds = insertLocations(locationCount);
+        ContentValues[] values = new ContentValues[locationCount * DAYS_PER_LOCATION];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationIds[i / DAYS_PER_LOCATION]);
+            values[i].put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (i % DAYS_PER_LOCATION) * DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        String[] selectionArgs = {TestUtilities.TEST_LOCATION + "-" + (locationCount / 2),
+                Long.toString(TestUtilities.TEST_DATE)};
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Cursor cursor = db.rawQuery("SELECT weather._id, date, short_desc, max, min, " +
+                    "location_setting, weather_id, coord_lat, coord_long FROM weather " +
+                    "INNER JOIN location ON weather.location_id = location._id " +
+                    "WHERE location.location_setting = ? AND date >= ? ORDER BY date ASC",
+                    selectionArgs);
+            assertEquals(DAYS_PER_LOCATION, cursor.getCount());
+            cursor.close();
+        }
+        long joinNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Cursor cursor = db.rawQuery("SELECT weather._id, date, short_desc, max, min, " +
+                    "location_setting, weather_id, coord_lat, coord_long FROM " +
+                    WeatherDbHelper.TABLE_CURRENT_FORECAST + " AS weather " +
+                    "WHERE location_setting = ? AND date >= ? ORDER BY date ASC",
+                    selectionArgs);
+            assertEquals(DAYS_PER_LOCATION, cursor.getCount());
+            cursor.close();
+        }
+        long forecastNanos = System.nanoTime() - start;
+        db.close();
+
+        Log.i(LOG_TAG, "Forecast read of " + DAYS_PER_LOCATION + " days out of " + locationCount
+                + " locations: join " + joinNanos / iterations / 1000 + " us, current forecast "
+                + forecastNanos / iterations / 1000 + " us");
+    }
+
+    /*
+        The same forecast read by a caller in our own process: through the ContentResolver and a
+        cursor, as the app used to, and through the repository's typed list.  Both are served
+        from the query cache after the first read, so this is the cost of the path around it.
+     */
+    public void testRepositoryReadLatency() {
+        final int iterations = 500;
+        long today = SunshineCalendar.getDayStart(SunshineCalendar.getTodayJulianDay());
+        long locationId = insertLocations(1)[0];
+        String locationSetting = TestUtilities.TEST_LOCATION + "-0";
+        WeatherRowBuffer rows = new WeatherRowBuffer(DAYS_PER_LOCATION);
+        for (int i = 0; i < DAYS_PER_LOCATION; i++) {
+            rows.add(locationId, today + i * DAY_IN_MILLIS, 321, "Asteroids",
+                    65, 75, 1.2, 1.3, 5.5, 1.1);
+        }
+        WeatherRepository repository = WeatherRepository.getInstance(mContext);
+        repository.ingest(rows);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, today),
+                    WeatherDay.COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            int count = 0;
+            while (cursor.moveToNext()) {
+                WeatherDay.fromCursor(cursor);
+                count++;
+            }
+            assertEquals(DAYS_PER_LOCATION, count);
+            cursor.close();
+        }
+        long resolverNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            assertEquals(DAYS_PER_LOCATION, repository.getForecast(locationSetting, today).size());
+        }
+        long repositoryNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Forecast read of " + DAYS_PER_LOCATION + " days: resolver "
+                + resolverNanos / iterations / 1000 + " us, repository "
+                + repositoryNanos / iterations / 1000 + " us");
+    }
+
+    /*
+        The text a forecast row binds: its day label, high and low, and the detail view's wind.
+        Compares formatting it from scratch, as Utility used to on every bind, with the cached
+        formatters and interned strings it uses now.  Both have to produce the same text, down to
+        how they round a temperature halfway between two degrees.
+     */
+    public void testBindFormattingCost() {
+        final int rounds = 200;
+        final int textsPerRow = 4;
+        long today = SunshineCalendar.getDayStart(SunshineCalendar.getTodayJulianDay());
+        boolean metric = Utility.isMetric(mContext);
+        String[] oldTexts = new String[DAYS_PER_LOCATION * textsPerRow];
+        String[] cachedTexts = new String[oldTexts.length];
+
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < DAYS_PER_LOCATION; i++) {
+                long date = today + i * DAY_IN_MILLIS;
+                int text = i * textsPerRow;
+                oldTexts[text] = oldFriendlyDayString(date, i == 0);
+                oldTexts[text + 1] = oldFormatTemperature(getHalfDegree(i, metric), metric);
+                oldTexts[text + 2] = oldFormatTemperature(-10.25 + i * 2.5, metric);
+                oldTexts[text + 3] = oldFormattedWind(i * 1.7f, i * 25f, metric);
+            }
+        }
+        long oldNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < DAYS_PER_LOCATION; i++) {
+                long date = today + i * DAY_IN_MILLIS;
+                int text = i * textsPerRow;
+                cachedTexts[text] = Utility.getFriendlyDayString(mContext, date, i == 0);
+                cachedTexts[text + 1] = Utility.formatTemperature(mContext,
+                        getHalfDegree(i, metric));
+                cachedTexts[text + 2] = Utility.formatTemperature(mContext, -10.25 + i * 2.5);
+                cachedTexts[text + 3] = Utility.getFormattedWind(mContext, i * 1.7f, i * 25f);
+            }
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        for (int text = 0; text < oldTexts.length; text++) {
+            assertEquals("Error: text " + text % textsPerRow + " of day " + text / textsPerRow
+                    + " differs from formatting from scratch", oldTexts[text], cachedTexts[text]);
+        }
+
+        int binds = rounds * DAYS_PER_LOCATION;
+        Log.i(LOG_TAG, "Row formatting: from scratch " + oldNanos / binds + " ns/row, cached "
+                + cachedNanos / binds + " ns/row");
+    }
+
+    // A temperature in Celsius that shows as -10.5 + 2.5 * day degrees in the given units, so
+    // every other day falls halfway between two of them, below zero and above
+    private static double getHalfDegree(int day, boolean metric) {
+        double shown = -10.5 + day * 2.5;
+        return metric ? shown : (shown - 32) / 1.8;
+    }
+
+    // Utility's formatting before it was cached, for comparison
+    private String oldFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        int julianDay = SunshineCalendar.getJulianDay(dateInMillis);
+        int currentJulianDay = SunshineCalendar.getTodayJulianDay();
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return mContext.getString(R.string.format_full_friendly_date,
+                    mContext.getString(R.string.today),
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis));
+        } else if (julianDay == currentJulianDay) {
+            return mContext.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return mContext.getString(R.string.tomorrow);
+        } else if (julianDay < currentJulianDay + 7) {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+        return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+    }
+
+    private String oldFormatTemperature(double temperature, boolean metric) {
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(mContext.getString(R.string.format_temperature), temperature);
+    }
+
+    private String oldFormattedWind(float windSpeed, float degrees, boolean metric) {
+        int windFormat;
+        if (metric) {
+            windFormat = R.string.format_wind_kmh;
+        } else {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+        String[] directions = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+        String direction = directions[(int) (((degrees + 22.5) % 360) / 45)];
+        return String.format(mContext.getString(windFormat), windSpeed, direction);
+    }
+
+    /*
+        The weather condition lookups a forecast row makes when it's bound: its icon, its art
+        and its description.  Compares the if chains they used to be, kept below, with the
+        condition table, over every code OpenWeatherMap uses and then some.  Both have to agree.
+     */
+    public void testConditionLookupCost() {
+        final int rounds = 100;
+        final int firstCode = 100;
+        final int lastCode = 1000;
+        final int codeCount = lastCode - firstCode + 1;
+        int[] oldIcons = new int[codeCount];
+        int[] oldArt = new int[codeCount];
+        int[] icons = new int[codeCount];
+        int[] art = new int[codeCount];
+        String[] descriptions = new String[codeCount];
+
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int code = firstCode; code <= lastCode; code++) {
+                oldIcons[code - firstCode] = oldIconResource(code);
+                oldArt[code - firstCode] = oldArtResource(code);
+            }
+        }
+        long chainNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int code = firstCode; code <= lastCode; code++) {
+                icons[code - firstCode] = Utility.getIconResourceForWeatherCondition(code);
+                art[code - firstCode] = Utility.getArtResourceForWeatherCondition(code);
+            }
+        }
+        long tableNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int code = firstCode; code <= lastCode; code++) {
+                descriptions[code - firstCode] =
+                        Utility.getStringForWeatherCondition(mContext, code);
+            }
+        }
+        long descriptionNanos = System.nanoTime() - start;
+
+        for (int code = firstCode; code <= lastCode; code++) {
+            assertEquals("Error: icon of " + code, oldIcons[code - firstCode],
+                    icons[code - firstCode]);
+            assertEquals("Error: art of " + code, oldArt[code - firstCode],
+                    art[code - firstCode]);
+            assertNotNull("Error: description of " + code, descriptions[code - firstCode]);
+        }
+
+        int lookups = rounds * codeCount;
+        Log.i(LOG_TAG, "Icon and art lookup: if chains " + chainNanos / lookups
+                + " ns/code, table " + tableNanos / lookups + " ns/code; description "
+                + descriptionNanos / lookups + " ns/code");
+    }
+
+    // Utility's condition lookups before the table, for comparison
+    private static int oldIconResource(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    private static int oldArtResource(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+}
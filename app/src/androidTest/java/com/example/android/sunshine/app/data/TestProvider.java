@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -28,8 +30,12 @@ import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -179,7 +185,7 @@ public class TestProvider extends AndroidTestCase {
         // Fantastic.  Now that we have a location, add some weather!
         ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
 
-        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+        long weatherRowId = WeatherCodec.insert(db, weatherValues);
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
@@ -512,4 +518,596 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Location based weather queries are served from an in-memory cache between writes.  This
+        makes sure that a write to the location invalidates what was cached for it.
+     */
+    public void testQueryCacheInvalidation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Uri weatherForLocationUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Cursor cursor = mContext.getContentResolver().query(weatherForLocationUri,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Expected no weather before the bulk insert", 0, cursor.getCount());
+        cursor.close();
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        // The same query again must not be answered with the cached empty result
+        cursor = mContext.getContentResolver().query(weatherForLocationUri,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Cached result was not invalidated by bulkInsert",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testQueryCacheInvalidation.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+
+        // And repeated reads keep returning the same rows from the cache
+        cursor = mContext.getContentResolver().query(weatherForLocationUri,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Cached result did not match the database",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    static ArrayList<ContentProviderOperation> createSyncBatch() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+        return operations;
+    }
+
+    /*
+        A batch is applied in one transaction: either every operation lands or none does.
+     */
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = createSyncBatch();
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: applyBatch did not insert all of the weather",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        deleteAllRecordsFromProvider();
+
+        // Inserting the same location twice violates its UNIQUE constraint, which must roll
+        // back everything that came before it in the batch.
+        operations = createSyncBatch();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: Expected the batch to fail");
+        } catch (RuntimeException expected) {
+            // The constraint violation is rethrown by the provider
+        }
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: A failed batch left weather behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A sync writes the location, two weeks of weather and a stale day delete.  Observers of
+        the synced location should requery once for all of it, and observers of any other
+        location not at all.
+     */
+    public void testSyncBatchNotifiesOnce() throws Exception {
+        TestUtilities.CountingContentObserver locationObserver =
+                TestUtilities.CountingContentObserver.getCountingContentObserver();
+        TestUtilities.CountingContentObserver otherLocationObserver =
+                TestUtilities.CountingContentObserver.getCountingContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                locationObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherLocationObserver);
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createSyncBatch());
+
+        assertEquals("Error: A sync batch should cost observers of its location one requery",
+                1, locationObserver.waitForNotificationsAndCount(500));
+        assertEquals("Error: A sync batch should not notify observers of other locations",
+                0, otherLocationObserver.getCount());
+
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+        otherLocationObserver.mHT.quit();
+    }
+
+    /*
+        Compaction should drop the days a location no longer keeps and leave no free pages
+        behind in the database file.
+     */
+    public void testCompaction() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_RETENTION_DAYS, 1);
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+
+        // Three days in the past and today.  Only yesterday and today should survive.
+        ContentValues[] weatherValues = new ContentValues[4];
+        for (int i = 0; i < weatherValues.length; i++) {
+            weatherValues[i] = TestUtilities.createWeatherValues(locationRowId);
+            weatherValues[i].put(WeatherEntry.COLUMN_DATE,
+                    WeatherCompactor.getRetentionCutoff(weatherValues.length - 1 - i));
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        WeatherCompactor.Report report = WeatherCompactor.requestCompaction(mContext);
+        assertNotNull("Error: Compaction did not run", report);
+        assertEquals("Error: Compaction deleted the wrong number of days",
+                2, report.getDeletedRows());
+        assertEquals("Error: Compaction left free pages in the database",
+                0, report.getFreelistCountAfter());
+        assertTrue("Error: Compaction grew the database file",
+                report.getFileSizeAfter() <= report.getFileSizeBefore());
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Compaction did not keep the retained days", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Rows ingested through the provider's buffer path should land exactly like bulk inserted
+        ones, with normalized dates, and replace what's already there for the same day.
+     */
+    public void testIngest() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+        try {
+            WeatherRowBuffer rows = new WeatherRowBuffer(1);
+            for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+                rows.add(locationRowId,
+                        values.getAsLong(WeatherEntry.COLUMN_DATE),
+                        values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                        values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                        values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                        values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                        values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                        values.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                        values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                        values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+            }
+            // Twice, to check that the second run replaces the first instead of adding to it
+            provider.ingest(rows, new ArrayList<ContentProviderOperation>());
+            provider.ingest(rows, new ArrayList<ContentProviderOperation>());
+        } finally {
+            client.release();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        ContentValues[] expectedValues = createBulkInsertWeatherValues(locationRowId);
+        assertEquals("Error: ingest did not replace existing days",
+                expectedValues.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < expectedValues.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testIngest.  Error validating WeatherEntry " + i,
+                    cursor, expectedValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Date ranges and pages of a location's weather.  Walking the pages from the first one,
+        each keyed on the last date of the one before, should visit every day exactly once.
+     */
+    public void testDateRangeAndPages() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues weatherValues : bulkInsertContentValues) {
+            // So the rows read back can be compared with what went in
+            weatherValues.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                    weatherValues.getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+        long millisecondsInADay = 1000*60*60*24;
+
+        // Days 2 to 5, the end date not included
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDateRange(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + 2 * millisecondsInADay,
+                        TestUtilities.TEST_DATE + 6 * millisecondsInADay),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Date range returned the wrong number of days", 4, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 2; i < 6; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testDateRangeAndPages.  Error validating day " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+
+        final int pageSize = 3;
+        int day = 0;
+        int pages = 0;
+        Uri pageUri = WeatherEntry.buildWeatherLocationFirstPage(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE, pageSize);
+        while (pageUri != null) {
+            cursor = mContext.getContentResolver().query(pageUri, null, null, null, null);
+            assertTrue("Error: Page " + pages + " is larger than its limit",
+                    cursor.getCount() <= pageSize);
+            int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            long lastDate = 0;
+            while (cursor.moveToNext()) {
+                TestUtilities.validateCurrentRecord("testDateRangeAndPages.  Error validating " +
+                        "day " + day + " on page " + pages, cursor, bulkInsertContentValues[day++]);
+                lastDate = cursor.getLong(dateColumn);
+            }
+            pageUri = cursor.getCount() == pageSize ? WeatherEntry.buildWeatherLocationPage(
+                    TestUtilities.TEST_LOCATION, lastDate, pageSize) : null;
+            cursor.close();
+            pages++;
+        }
+        assertEquals("Error: Pages did not cover every day", BULK_INSERT_RECORDS_TO_INSERT, day);
+        assertEquals("Error: Wrong number of pages",
+                BULK_INSERT_RECORDS_TO_INSERT / pageSize + 1, pages);
+    }
+
+    /*
+        Checks the weekly and monthly summaries against the bulk insert days, which always have
+        a minimum and maximum 140 degrees apart, then that deleting days rebuilds them.
+     */
+    public void testWeatherSummaries() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues weatherValues : bulkInsertContentValues) {
+            weatherValues.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                    weatherValues.getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        for (String period : new String[]{SummaryEntry.PERIOD_WEEK, SummaryEntry.PERIOD_MONTH}) {
+            validateSummaries(SummaryEntry.buildSummaryLocationWithPeriod(
+                    TestUtilities.TEST_LOCATION, period), period, BULK_INSERT_RECORDS_TO_INSERT,
+                    56, 84);
+        }
+
+        // Drop the last five days
+        long cutoff = bulkInsertContentValues[5].getAsLong(WeatherEntry.COLUMN_DATE);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " >= ?", new String[]{Long.toString(cutoff)});
+
+        for (String period : new String[]{SummaryEntry.PERIOD_WEEK, SummaryEntry.PERIOD_MONTH}) {
+            validateSummaries(SummaryEntry.buildSummaryLocationWithPeriod(
+                    TestUtilities.TEST_LOCATION, period), period, 5, 61, 79);
+        }
+
+        // Only the buckets starting on or after the first one's start
+        Cursor cursor = mContext.getContentResolver().query(SummaryEntry.buildWeeklySummary(
+                TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertTrue("Error: No weekly summaries", cursor.moveToLast());
+        long lastStart = cursor.getLong(cursor.getColumnIndex(SummaryEntry.COLUMN_START_DATE));
+        cursor.close();
+        cursor = mContext.getContentResolver().query(
+                SummaryEntry.buildSummaryLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        SummaryEntry.PERIOD_WEEK, lastStart), null, null, null, null);
+        assertEquals("Error: Start date didn't limit the summaries", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Prunes the first five days the way retention does, then checks that the summaries still
+        count them, also once their buckets are rebuilt, while any other delete still takes days
+        out.
+     */
+    public void testSummariesKeepRetainedDays() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues weatherValues : bulkInsertContentValues) {
+            weatherValues.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                    weatherValues.getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        long cutoff = bulkInsertContentValues[5].getAsLong(WeatherEntry.COLUMN_DATE);
+        int deleted = mContext.getContentResolver().delete(
+                WeatherEntry.buildWeatherRetentionUri(),
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(locationRowId), Long.toString(cutoff)});
+        assertEquals("Error: Retention deleted the wrong number of days", 5, deleted);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: Retention left the wrong number of days", 5, cursor.getCount());
+        cursor.close();
+
+        for (String period : new String[]{SummaryEntry.PERIOD_WEEK, SummaryEntry.PERIOD_MONTH}) {
+            validateSummaries(SummaryEntry.buildSummaryLocationWithPeriod(
+                    TestUtilities.TEST_LOCATION, period), period, BULK_INSERT_RECORDS_TO_INSERT,
+                    56, 84);
+        }
+
+        // Writing the kept days again rebuilds every bucket that has any of them
+        ContentValues[] keptValues = new ContentValues[5];
+        System.arraycopy(bulkInsertContentValues, 5, keptValues, 0, keptValues.length);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, keptValues);
+
+        for (String period : new String[]{SummaryEntry.PERIOD_WEEK, SummaryEntry.PERIOD_MONTH}) {
+            validateSummaries(SummaryEntry.buildSummaryLocationWithPeriod(
+                    TestUtilities.TEST_LOCATION, period), period, BULK_INSERT_RECORDS_TO_INSERT,
+                    56, 84);
+        }
+
+        // An ordinary delete of the kept days leaves only the pruned ones
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " >= ?", new String[]{Long.toString(cutoff)});
+
+        for (String period : new String[]{SummaryEntry.PERIOD_WEEK, SummaryEntry.PERIOD_MONTH}) {
+            validateSummaries(SummaryEntry.buildSummaryLocationWithPeriod(
+                    TestUtilities.TEST_LOCATION, period), period, 5, 61, 79);
+        }
+    }
+
+    private void validateSummaries(Uri uri, String period, int expectedDays,
+                                   double expectedMin, double expectedMax) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int days = 0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        long lastStart = Long.MIN_VALUE;
+        while (cursor.moveToNext()) {
+            int bucketDays = cursor.getInt(cursor.getColumnIndex(SummaryEntry.COLUMN_DAY_COUNT));
+            long start = cursor.getLong(cursor.getColumnIndex(SummaryEntry.COLUMN_START_DATE));
+            assertEquals("Error: Summary of the wrong period", period,
+                    cursor.getString(cursor.getColumnIndex(SummaryEntry.COLUMN_PERIOD)));
+            assertTrue("Error: Summaries out of order", start > lastStart);
+            assertTrue("Error: " + period + " with " + bucketDays + " days",
+                    bucketDays > 0 && bucketDays <= 31);
+            if (SummaryEntry.PERIOD_WEEK.equals(period)) {
+                assertTrue("Error: Week with " + bucketDays + " days", bucketDays <= 7);
+            }
+            assertEquals("Error: Mean temperature", 70.0,
+                    cursor.getDouble(cursor.getColumnIndex(SummaryEntry.COLUMN_MEAN_TEMP)), 0.001);
+            days += bucketDays;
+            min = Math.min(min, cursor.getDouble(cursor.getColumnIndex(SummaryEntry.COLUMN_MIN_TEMP)));
+            max = Math.max(max, cursor.getDouble(cursor.getColumnIndex(SummaryEntry.COLUMN_MAX_TEMP)));
+            lastStart = start;
+        }
+        cursor.close();
+        assertEquals("Error: " + period + " summaries cover the wrong number of days",
+                expectedDays, days);
+        assertEquals("Error: " + period + " minimum temperature", expectedMin, min, 0.001);
+        assertEquals("Error: " + period + " maximum temperature", expectedMax, max, 0.001);
+    }
+
+    /*
+        Reads today's weather in process and through the provider method, then checks that a write to the
+        location replaces what it serves from memory.
+     */
+    public void testTodayWeather() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        assertNull("Error: Today's weather for a location without any",
+                TodayWeather.query(mContext, TestUtilities.TEST_LOCATION));
+
+        long today = SunshineCalendar.getDayStart(SunshineCalendar.getTodayJulianDay());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        weatherValues[0].put(WeatherEntry.COLUMN_DATE, today);
+        weatherValues[1].put(WeatherEntry.COLUMN_DATE, today + SunshineCalendar.DAY_IN_MILLIS);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weatherValues[0], weatherValues[1]});
+
+        for (int read = 0; read < 2; read++) {
+            TodayWeather weather = TodayWeather.query(mContext, TestUtilities.TEST_LOCATION);
+            assertNotNull("Error: No weather for today on read " + read, weather);
+            assertTrue("Error: Weather is not today's", weather.isToday());
+            assertEquals("Error: Wrong maximum temperature",
+                    weatherValues[0].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    weather.getMaxTemp(), 0.001);
+            assertEquals("Error: Wrong description",
+                    weatherValues[0].getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    weather.getDescription());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Callers outside our process get the same row from the provider method
+            TodayWeather weather = TodayWeather.fromBundle(mContext.getContentResolver().call(
+                    WeatherContract.BASE_CONTENT_URI, TodayWeather.METHOD_GET_TODAY,
+                    TestUtilities.TEST_LOCATION, null));
+            assertTrue("Error: Provider method returned another day", weather.isToday());
+            assertEquals("Error: Provider method returned the wrong description",
+                    weatherValues[0].getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    weather.getDescription());
+        }
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(today)});
+        TodayWeather weather = TodayWeather.query(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull("Error: No weather from today on", weather);
+        assertFalse("Error: Deleted day is still served", weather.isToday());
+        assertEquals("Error: Wrong maximum temperature after the delete",
+                weatherValues[1].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                weather.getMaxTemp(), 0.001);
+    }
+
+    /*
+        Runs a few operations and checks that the diagnostics uri reports each of them with the
+        rows it touched, and that the latency buckets behind its percentiles hold what they should.
+     */
+    public void testDiagnostics() {
+        mContext.getContentResolver().delete(WeatherContract.DiagnosticsEntry.CONTENT_URI,
+                null, null);
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        for (int i = 0; i < 3; i++) {
+            mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    null, null, null, null).close();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.DiagnosticsEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Expected one row per uri and operation", 3, cursor.getCount());
+        int uriIndex = cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_URI);
+        int operationIndex =
+                cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_OPERATION);
+        int callsIndex = cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_CALLS);
+        int rowsIndex = cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_ROWS);
+        int p50Index = cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_P50_TIME);
+        int maxIndex = cursor.getColumnIndex(WeatherContract.DiagnosticsEntry.COLUMN_MAX_TIME);
+        while (cursor.moveToNext()) {
+            String operation = cursor.getString(uriIndex) + " " + cursor.getString(operationIndex);
+            if ("location insert".equals(operation)) {
+                assertEquals("Error: Wrong location insert calls", 1, cursor.getLong(callsIndex));
+                assertEquals("Error: Wrong location insert rows", 1, cursor.getLong(rowsIndex));
+            } else if ("weather bulk_insert".equals(operation)) {
+                assertEquals("Error: Wrong bulk insert calls", 1, cursor.getLong(callsIndex));
+                assertEquals("Error: Wrong bulk insert rows",
+                        BULK_INSERT_RECORDS_TO_INSERT, cursor.getLong(rowsIndex));
+            } else if ("weather/* query".equals(operation)) {
+                assertEquals("Error: Wrong query calls", 3, cursor.getLong(callsIndex));
+                assertEquals("Error: Wrong query rows",
+                        3 * BULK_INSERT_RECORDS_TO_INSERT, cursor.getLong(rowsIndex));
+            } else {
+                fail("Error: Unexpected operation " + operation);
+            }
+            assertTrue("Error: Median above maximum for " + operation,
+                    cursor.getLong(p50Index) <= cursor.getLong(maxIndex) * 9 / 8 + 1);
+        }
+        cursor.close();
+
+        assertEquals("Error: Reset didn't clear every row", 3, mContext.getContentResolver()
+                .delete(WeatherContract.DiagnosticsEntry.CONTENT_URI, null, null));
+
+        // Every value lands in a bucket whose limit is at least it and at most an eighth above it
+        for (long micros = 0; micros < 1 << 20; micros += 1 + micros / 100) {
+            long limit = WeatherProviderStats.getBucketLimit(WeatherProviderStats.getBucket(micros));
+            assertTrue("Error: Bucket of " + micros + " ends below it", limit >= micros);
+            assertTrue("Error: Bucket of " + micros + " is too wide", limit <= micros * 9 / 8 + 1);
+        }
+        long[] histogram = new long[WeatherProviderStats.getBucket(Long.MAX_VALUE) + 1];
+        for (long micros = 1; micros <= 100; micros++) {
+            histogram[WeatherProviderStats.getBucket(micros)]++;
+        }
+        assertEquals("Error: Wrong median", 51, WeatherProviderStats.getPercentile(histogram, 0.5));
+        assertEquals("Error: Wrong maximum", 103, WeatherProviderStats.getPercentile(histogram, 1));
+    }
+
+    private long insertLocation(String locationSetting, double lat, double lon) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    /*
+        Checks that the nearby lookup returns only the locations within the radius, nearest
+        first, including across the antimeridian where longitudes wrap around.
+     */
+    public void testNearbyLocations() {
+        long northPoleId = insertLocation(TestUtilities.TEST_LOCATION, 64.7488, -147.353);
+        // About 2.2 km north, then about 111 km north
+        long neighbourId = insertLocation("neighbour", 64.7688, -147.353);
+        insertLocation("far", 65.7488, -147.353);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNear(64.7500, -147.353, 5), null, null, null, null);
+        assertEquals("Error: Wrong number of nearby locations", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: Nearest location isn't first",
+                northPoleId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        assertEquals("Error: Wrong distance", 0.13,
+                cursor.getDouble(cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE)), 0.01);
+        cursor.moveToNext();
+        assertEquals("Error: Neighbour isn't second",
+                neighbourId, cursor.getLong(cursor.getColumnIndex(LocationEntry._ID)));
+        cursor.close();
+
+        WeatherRepository repository = WeatherRepository.getInstance(mContext);
+        StoredLocation nearby = repository.findNearbyLocation(64.7700, -147.353, 5);
+        assertEquals("Error: Repository found another location", "neighbour",
+                nearby.getLocationSetting());
+        // Where the location is, not the point it was found from
+        assertEquals("Error: Wrong latitude", 64.7688, nearby.getLatitude(), 0.00001);
+        assertEquals("Error: Wrong longitude", -147.353, nearby.getLongitude(), 0.00001);
+        assertNull("Error: Found a location outside the radius",
+                repository.findNearbyLocation(10, 10, 5));
+
+        insertLocation("east of the antimeridian", 0, -179.99);
+        assertEquals("Error: No location across the antimeridian", "east of the antimeridian",
+                repository.findNearbyLocation(0, 179.99, 5).getLocationSetting());
+    }
+
+    private int countSearchResults(String text) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationSearch(text), null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /*
+        Checks that the search finds locations by the start of any word of their setting or city
+        name, follows updates and deletes of the location table, and takes nothing typed for
+        query syntax.
+     */
+    public void testLocationSearch() {
+        insertLocation("London, UK", 51.5, -0.13);
+        insertLocation("londonderry", 55.0, -7.3);
+        long newYorkId = insertLocation("10001", 40.75, -74.0);
+        ContentValues cityName = new ContentValues();
+        cityName.put(LocationEntry.COLUMN_CITY_NAME, "New York");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, cityName,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(newYorkId)});
+
+        assertEquals("Error: Wrong matches for a prefix", 2, countSearchResults("lond"));
+        assertEquals("Error: Wrong matches for two prefixes", 1, countSearchResults("Lon U"));
+        assertEquals("Error: Updated city name isn't searchable", 1, countSearchResults("new yo"));
+        assertEquals("Error: Wrong matches for a postal code", 1, countSearchResults("1000"));
+        assertEquals("Error: Matched text without words", 0, countSearchResults(" , "));
+        assertEquals("Error: Typed operators changed the query", 0,
+                countSearchResults("\"lond OR -new*"));
+
+        List<StoredLocation> locations = WeatherRepository.getInstance(mContext)
+                .searchLocations("londonderry", 5);
+        assertEquals("Error: Whole setting isn't the first match", "londonderry",
+                locations.get(0).getLocationSetting());
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(newYorkId)});
+        assertEquals("Error: Deleted location is still found", 0, countSearchResults("new"));
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+/*
+    Checks SunshineCalendar against the android.text.format.Time arithmetic it replaced, in a
+    few time zones with and without daylight saving, so dates already stored by older versions
+    keep matching the ones we compute now.
+ */
+public class TestSunshineCalendar extends AndroidTestCase {
+
+    private static final String[] TIME_ZONES = {
+            "UTC", "America/Los_Angeles", "Europe/London", "Asia/Kolkata", "Australia/Sydney"
+    };
+
+    // 2000-01-01 to 2040-01-01
+    private static final long RANGE_START = 946684800000L;
+    private static final long RANGE_END = 2208988800000L;
+    private static final int SAMPLES = 2000;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        SunshineCalendar.resetTimeZone();
+        super.tearDown();
+    }
+
+    private static void useTimeZone(String id) {
+        TimeZone.setDefault(TimeZone.getTimeZone(id));
+        SunshineCalendar.resetTimeZone();
+    }
+
+    // The normalization WeatherContract used to do
+    static long timeNormalizeDate(long millis) {
+        Time time = new Time();
+        time.set(millis);
+        int julianDay = Time.getJulianDay(millis, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    public void testJulianDayMatchesTime() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            Random random = new Random(id.hashCode());
+            for (int i = 0; i < SAMPLES; i++) {
+                long millis = RANGE_START + (long) (random.nextDouble() * (RANGE_END - RANGE_START));
+                Time time = new Time();
+                time.set(millis);
+                assertEquals("Error: Julian day of " + millis + " in " + id,
+                        Time.getJulianDay(millis, time.gmtoff),
+                        SunshineCalendar.getJulianDay(millis));
+            }
+        }
+    }
+
+    public void testDayStartMatchesTime() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            int firstDay = SunshineCalendar.getJulianDay(RANGE_START);
+            // Every day for three years covers each zone's daylight saving transitions
+            for (int julianDay = firstDay; julianDay < firstDay + 3 * 366; julianDay++) {
+                assertEquals("Error: Start of Julian day " + julianDay + " in " + id,
+                        new Time().setJulianDay(julianDay),
+                        SunshineCalendar.getDayStart(julianDay));
+            }
+        }
+    }
+
+    public void testNormalizeDateMatchesTime() {
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            Random random = new Random(~id.hashCode());
+            for (int i = 0; i < SAMPLES; i++) {
+                long millis = RANGE_START + (long) (random.nextDouble() * (RANGE_END - RANGE_START));
+                long normalized = SunshineCalendar.normalizeDate(millis);
+                assertEquals("Error: Normalized " + millis + " in " + id,
+                        timeNormalizeDate(millis), normalized);
+                assertEquals("Error: Normalizing " + millis + " in " + id + " is not idempotent",
+                        normalized, SunshineCalendar.normalizeDate(normalized));
+            }
+        }
+    }
+
+    public void testTimeZoneChangeIsPickedUp() {
+        useTimeZone("UTC");
+        long utcMidnight = SunshineCalendar.normalizeDate(RANGE_START + 1);
+        assertEquals("Error: UTC midnight", RANGE_START, utcMidnight);
+
+        useTimeZone("Asia/Kolkata");
+        assertEquals("Error: Cached time zone was not reset",
+                RANGE_START - (5 * 60 + 30) * 60 * 1000,
+                SunshineCalendar.normalizeDate(RANGE_START + 1));
+    }
+}
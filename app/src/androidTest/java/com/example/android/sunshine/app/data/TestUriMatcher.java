@@ -36,6 +36,14 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location/near?lat=51.5&lon=-0.13&radius=5"
+    private static final Uri TEST_LOCATION_NEAR_DIR = WeatherContract.LocationEntry.buildLocationNear(51.5, -0.13, 5);
+    // content://com.example.android.sunshine.app/location/search?q=Lond"
+    private static final Uri TEST_LOCATION_SEARCH_DIR = WeatherContract.LocationEntry.buildLocationSearch("Lond");
+    // content://com.example.android.sunshine.app/summary/London, UK/week"
+    private static final Uri TEST_SUMMARY_WITH_LOCATION_AND_PERIOD_DIR = WeatherContract.SummaryEntry.buildWeeklySummary(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/diagnostics"
+    private static final Uri TEST_DIAGNOSTICS_DIR = WeatherContract.DiagnosticsEntry.CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +61,13 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH_DIR), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The SUMMARY WITH LOCATION AND PERIOD URI was matched incorrectly.",
+                testMatcher.match(TEST_SUMMARY_WITH_LOCATION_AND_PERIOD_DIR), WeatherProvider.SUMMARY_WITH_LOCATION_AND_PERIOD);
+        assertEquals("Error: The DIAGNOSTICS URI was matched incorrectly.",
+                testMatcher.match(TEST_DIAGNOSTICS_DIR), WeatherProvider.DIAGNOSTICS);
     }
 }
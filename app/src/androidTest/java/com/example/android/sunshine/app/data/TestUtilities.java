@@ -29,6 +29,7 @@ import com.example.android.sunshine.app.utils.PollingCheck;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /*
     Students: These are functions and some test data to make it easier to test your database and
@@ -163,4 +164,54 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    /*
+        Counts every onChange it receives, so tests can check how many requeries a change
+        would cost an observing loader.
+     */
+    static class CountingContentObserver extends ContentObserver {
+        final HandlerThread mHT;
+        final AtomicInteger mChangeCount = new AtomicInteger();
+
+        static CountingContentObserver getCountingContentObserver() {
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            return new CountingContentObserver(ht);
+        }
+
+        private CountingContentObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mChangeCount.incrementAndGet();
+        }
+
+        /*
+            Waits for at least one notification, then gives any stragglers time to arrive before
+            returning the total.
+         */
+        public int waitForNotificationsAndCount(long settleMillis) throws InterruptedException {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mChangeCount.get() > 0;
+                }
+            }.run();
+            Thread.sleep(settleMillis);
+            mHT.quit();
+            return mChangeCount.get();
+        }
+
+        public int getCount() {
+            return mChangeCount.get();
+        }
+    }
 }
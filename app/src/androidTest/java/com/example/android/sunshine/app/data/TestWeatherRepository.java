@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    The repository is what the app reads and writes through, so it has to agree with the
+    provider: same rows, same caching, and a listener call for every change observers of the
+    provider's uris would hear about.
+ */
+public class TestWeatherRepository extends AndroidTestCase {
+
+    private static final int DAYS = 7;
+
+    private WeatherRepository mRepository;
+    private final List<String> mWeatherChanges = new ArrayList<String>();
+    private int mLocationChanges;
+
+    private final WeatherRepository.OnChangeListener mListener =
+            new WeatherRepository.OnChangeListener() {
+                @Override
+                public void onWeatherChanged(String locationSetting) {
+                    mWeatherChanges.add(locationSetting);
+                }
+
+                @Override
+                public void onLocationsChanged() {
+                    mLocationChanges++;
+                }
+            };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mRepository = WeatherRepository.getInstance(mContext);
+        mRepository.addOnChangeListener(mListener);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRepository.removeOnChangeListener(mListener);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long today() {
+        return SunshineCalendar.getDayStart(SunshineCalendar.getTodayJulianDay());
+    }
+
+    private static WeatherRowBuffer createRows(long locationId, long firstDate, int days) {
+        WeatherRowBuffer rows = new WeatherRowBuffer();
+        for (int i = 0; i < days; i++) {
+            rows.add(locationId, firstDate + i * SunshineCalendar.DAY_IN_MILLIS, 321,
+                    "Asteroids", 65 - i, 75 + i, 1.2, 1.3, 5.5, 1.1);
+        }
+        return rows;
+    }
+
+    public void testForecastMatchesProvider() {
+        long locationId = mRepository.addLocation(TestUtilities.TEST_LOCATION, "North Pole",
+                64.7488, -147.353);
+        assertEquals("Error: Location id doesn't round trip",
+                locationId, mRepository.getLocationId(TestUtilities.TEST_LOCATION));
+        assertEquals("Error: Unknown location has an id",
+                -1, mRepository.getLocationId(TestUtilities.TEST_LOCATION + "-unknown"));
+
+        mRepository.ingest(createRows(locationId, today(), DAYS));
+        List<WeatherDay> forecast = mRepository.getForecast(TestUtilities.TEST_LOCATION, today());
+        assertEquals("Error: Wrong number of days", DAYS, forecast.size());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, today()),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Provider and repository disagree", DAYS, cursor.getCount());
+        for (WeatherDay day : forecast) {
+            assertTrue(cursor.moveToNext());
+            assertEquals("Error: Wrong id", cursor.getLong(
+                    cursor.getColumnIndex(WeatherEntry._ID)), day.getId());
+            assertEquals("Error: Wrong date", cursor.getLong(
+                    cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)), day.getDate());
+            assertEquals("Error: Wrong maximum", cursor.getDouble(
+                    cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)), day.getMaxTemp(), 0.001);
+            assertEquals("Error: Wrong description", cursor.getString(
+                    cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)), day.getDescription());
+        }
+        cursor.close();
+
+        WeatherDay tomorrow = mRepository.getWeather(TestUtilities.TEST_LOCATION,
+                today() + SunshineCalendar.DAY_IN_MILLIS);
+        assertNotNull("Error: No weather for tomorrow", tomorrow);
+        assertEquals("Error: Wrong day", forecast.get(1).getId(), tomorrow.getId());
+    }
+
+    public void testChangesReachListenersAndCache() {
+        long locationId = mRepository.addLocation(TestUtilities.TEST_LOCATION, "North Pole",
+                64.7488, -147.353);
+        assertEquals("Error: Adding a location wasn't reported", 1, mLocationChanges);
+
+        mWeatherChanges.clear();
+        mRepository.ingest(createRows(locationId, today(), DAYS));
+        assertEquals("Error: One ingest should be reported once",
+                1, mWeatherChanges.size());
+        assertEquals("Error: Ingest reported the wrong location",
+                TestUtilities.TEST_LOCATION, mWeatherChanges.get(0));
+
+        List<WeatherDay> forecast = mRepository.getForecast(TestUtilities.TEST_LOCATION, today());
+        assertSame("Error: Unchanged forecast wasn't served from memory", forecast,
+                mRepository.getForecast(TestUtilities.TEST_LOCATION, today()));
+
+        // A write through the provider is published to the repository's listeners and cache
+        mWeatherChanges.clear();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(today())});
+        assertEquals("Error: Provider delete wasn't reported", 1, mWeatherChanges.size());
+        assertEquals("Error: Cached forecast outlived a delete", DAYS - 1,
+                mRepository.getForecast(TestUtilities.TEST_LOCATION, today()).size());
+    }
+
+    public void testIngestAddsLocation() {
+        mWeatherChanges.clear();
+        mRepository.ingest(TestUtilities.TEST_LOCATION, "North Pole", 64.7488, -147.353,
+                createRows(-1, today(), DAYS));
+        long locationId = mRepository.getLocationId(TestUtilities.TEST_LOCATION);
+        assertTrue("Error: Ingest didn't add the location", locationId != -1);
+        assertEquals("Error: Adding a location with its forecast wasn't reported once",
+                1, mLocationChanges);
+        assertEquals("Error: One ingest should be reported once", 1, mWeatherChanges.size());
+        assertEquals("Error: Wrong number of days", DAYS,
+                mRepository.getForecast(TestUtilities.TEST_LOCATION, today()).size());
+
+        // A known location keeps its row
+        mRepository.ingest(TestUtilities.TEST_LOCATION, "North Pole", 64.7488, -147.353,
+                createRows(-1, today() + SunshineCalendar.DAY_IN_MILLIS, DAYS));
+        assertEquals("Error: Location was added twice",
+                locationId, mRepository.getLocationId(TestUtilities.TEST_LOCATION));
+        assertEquals("Error: Wrong number of days", DAYS + 1,
+                mRepository.getForecast(TestUtilities.TEST_LOCATION, today()).size());
+    }
+
+    public void testIngestAppliesRetention() {
+        long locationId = mRepository.addLocation(TestUtilities.TEST_LOCATION, "North Pole",
+                64.7488, -147.353);
+        // Three days in the past, which a location keeping none of them drops
+        mRepository.ingest(createRows(locationId,
+                today() - 3 * SunshineCalendar.DAY_IN_MILLIS, DAYS));
+        List<WeatherDay> forecast = mRepository.getForecast(TestUtilities.TEST_LOCATION, 0);
+        assertEquals("Error: Ingest kept days the location doesn't", DAYS - 3, forecast.size());
+        assertEquals("Error: Forecast doesn't start today", today(), forecast.get(0).getDate());
+    }
+}
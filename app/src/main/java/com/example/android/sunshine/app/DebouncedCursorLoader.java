@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.SunshineCalendar;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A {@link CursorLoader} for the weather on screen, which only hands over a new cursor once a
+ * burst of changes is over, and only if it shows something different.
+ *
+ * A sync notifies the weather uris several times in a row.  A plain CursorLoader requeries on
+ * every one of them, and each requery is bound again.  Here:
+ * <ul>
+ * <li>a change only reloads once no other change has come for {@link #DEBOUNCE_MILLIS}, so a
+ * burst is one reload;</li>
+ * <li>changes arriving while a reload runs are folded into a single reload after it, as
+ * {@link android.support.v4.content.AsyncTaskLoader} does, so reloads never queue up;</li>
+ * <li>a reloaded cursor with the same rows and display settings as the one on screen is closed
+ * instead of delivered, so a sync that changed nothing isn't bound at all.</li>
+ * </ul>
+ */
+class DebouncedCursorLoader extends CursorLoader {
+
+    static final long DEBOUNCE_MILLIS = 300;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            mReloadPending = false;
+            DebouncedCursorLoader.super.onContentChanged();
+        }
+    };
+    private boolean mReloadPending;
+
+    // The last cursor loaded and what it shows, set together on the loading thread.  Loads
+    // run one at a time, so it's still the one being delivered when deliverResult sees it.
+    private volatile Loaded mLoaded;
+    // The cursor on screen and what it shows
+    private Cursor mDelivered;
+    private List<Object> mDeliveredContents;
+
+    DebouncedCursorLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public void onContentChanged() {
+        mHandler.removeCallbacks(mReload);
+        mHandler.postDelayed(mReload, DEBOUNCE_MILLIS);
+        mReloadPending = true;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            List<Object> contents = readContents(cursor);
+            Cursor result = onLoaded(cursor);
+            mLoaded = new Loaded(result, contents);
+            return result;
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Called on the loading thread with each cursor loaded, to hand back the cursor to deliver
+     * in its place, e.g. one carrying data prepared from it.
+     */
+    protected Cursor onLoaded(Cursor cursor) {
+        return cursor;
+    }
+
+    /*
+        Every value of every row, along with the settings that change how they're shown and the
+        day and time zone their day labels are relative to.  The cursors are short, a page of
+        days at most.
+     */
+    private List<Object> readContents(Cursor cursor) {
+        SunshineSettings settings = SunshineSettings.get(getContext());
+        int columns = cursor.getColumnCount();
+        List<Object> contents = new ArrayList<Object>(5 + cursor.getCount() * columns);
+        contents.add(Locale.getDefault());
+        contents.add(settings.isMetric());
+        contents.add(settings.getArtUrlFormat());
+        contents.add(SunshineCalendar.getTodayJulianDay());
+        contents.add(SunshineCalendar.getTimeZone().getID());
+        for (int i = 0; i < cursor.getCount(); i++) {
+            cursor.moveToPosition(i);
+            for (int column = 0; column < columns; column++) {
+                contents.add(cursor.getString(column));
+            }
+        }
+        return contents;
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (cursor != null && cursor == mDelivered) {
+            // Handed over again when the loader restarts
+            super.deliverResult(cursor);
+            return;
+        }
+        Loaded loaded = mLoaded;
+        List<Object> contents = loaded != null && loaded.mCursor == cursor
+                ? loaded.mContents : null;
+        if (cursor != null && !isReset() && contents != null
+                && contents.equals(mDeliveredContents)) {
+            // Nothing on screen would change
+            cursor.close();
+            return;
+        }
+        mDelivered = cursor;
+        mDeliveredContents = cursor != null ? contents : null;
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onStopLoading() {
+        if (mReloadPending) {
+            // Not worth waiting for while stopped: the loader reloads when it's started again
+            mHandler.removeCallbacks(mReload);
+            mReloadPending = false;
+            super.onContentChanged();
+        }
+        super.onStopLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        mHandler.removeCallbacks(mReload);
+        mReloadPending = false;
+        super.onReset();
+        mLoaded = null;
+        mDelivered = null;
+        mDeliveredContents = null;
+    }
+
+    private static final class Loaded {
+        final Cursor mCursor;
+        final List<Object> mContents;
+
+        Loaded(Cursor cursor, List<Object> contents) {
+            mCursor = cursor;
+            mContents = contents;
+        }
+    }
+}
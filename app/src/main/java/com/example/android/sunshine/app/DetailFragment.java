@@ -16,12 +16,14 @@
 package com.example.android.sunshine.app;
 
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.CardView;
@@ -42,9 +44,15 @@ import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
- * A placeholder fragment containing a simple view.
+ * Shows one day of the forecast.
+ *
+ * A day the forecast list has loaded is taken from the {@link ForecastStore} and kept up to date
+ * by it, so selecting one doesn't touch the database.  Otherwise, e.g. when opened from a
+ * notification, or when the day changes while the list isn't started to reload it, the day is
+ * read by a loader of its own, which follows it from then on.
  */
-public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>,
+        ForecastStore.Observer {
 
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
@@ -58,34 +66,21 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     private static final int DETAIL_LOADER = 0;
 
-    private static final String[] DETAIL_COLUMNS = {
-            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATE,
-            WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherEntry.COLUMN_HUMIDITY,
-            WeatherEntry.COLUMN_PRESSURE,
-            WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherEntry.COLUMN_DEGREES,
-            WeatherEntry.COLUMN_WEATHER_ID,
-            // This works because the WeatherProvider returns location data joined with
-            // weather data, even though they're stored in two different tables.
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
-    };
-
-    // These indices are tied to DETAIL_COLUMNS.  If DETAIL_COLUMNS changes, these
-    // must change.
-    public static final int COL_WEATHER_ID = 0;
-    public static final int COL_WEATHER_DATE = 1;
-    public static final int COL_WEATHER_DESC = 2;
-    public static final int COL_WEATHER_MAX_TEMP = 3;
-    public static final int COL_WEATHER_MIN_TEMP = 4;
-    public static final int COL_WEATHER_HUMIDITY = 5;
-    public static final int COL_WEATHER_PRESSURE = 6;
-    public static final int COL_WEATHER_WIND_SPEED = 7;
-    public static final int COL_WEATHER_DEGREES = 8;
-    public static final int COL_WEATHER_CONDITION_ID = 9;
+    // Whether the day is read by the loader rather than taken from the store
+    private boolean mUsingLoader;
+    private ForecastItem mItem;
+    private boolean mStarted;
+    private boolean mObservingStore;
+    // While the day comes from the store: tells when it changes while the list isn't started
+    private final ContentObserver mWeatherObserver =
+            new ContentObserver(new Handler(Looper.getMainLooper())) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    if (!ForecastStore.get().isLive()) {
+                        startLoader();
+                    }
+                }
+            };
 
     private ImageView mIconView;
     private TextView mDateView;
@@ -112,6 +107,10 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             mUri = arguments.getParcelable(DetailFragment.DETAIL_URI);
             mTransitionAnimation = arguments.getBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, false);
         }
+        if (savedInstanceState != null && savedInstanceState.containsKey(DETAIL_URI)) {
+            // The day may have been changed since by showDay
+            mUri = savedInstanceState.getParcelable(DETAIL_URI);
+        }
 
         View rootView = inflater.inflate(R.layout.fragment_detail_start, container, false);
         mIconView = (ImageView) rootView.findViewById(R.id.detail_icon);
@@ -153,33 +152,143 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        // A loader kept from before a rotation carries on
+        if (null != getLoaderManager().getLoader(DETAIL_LOADER) || !showFromStore()) {
+            mUsingLoader = true;
+            getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        mStarted = true;
+        if (!mUsingLoader) {
+            observeStore();
+        }
+    }
+
+    @Override
+    public void onStop() {
+        mStarted = false;
+        stopObservingStore();
+        super.onStop();
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        if (null != mUri) {
+            outState.putParcelable(DETAIL_URI, mUri);
+        }
+        super.onSaveInstanceState(outState);
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
         if (null != uri) {
             long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
-            mUri = updatedUri;
+            showDay(updatedUri);
+        }
+    }
+
+    /**
+     * Shows another day in place, for the two-pane layout.
+     */
+    void showDay(Uri uri) {
+        mUri = uri;
+        // Observed again below for the new day's uri
+        stopObservingStore();
+        if (showFromStore()) {
+            if (mUsingLoader) {
+                mUsingLoader = false;
+                getLoaderManager().destroyLoader(DETAIL_LOADER);
+            }
+            if (mStarted) {
+                observeStore();
+            }
+        } else {
+            mUsingLoader = true;
             getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
         }
     }
 
+    /*
+        Shows the day from the store if the list has loaded it.
+     */
+    private boolean showFromStore() {
+        if (null == mUri) {
+            return false;
+        }
+        ForecastItem item = ForecastStore.get().getItem(
+                WeatherEntry.getLocationSettingFromUri(mUri), WeatherEntry.getDateFromUri(mUri));
+        if (null == item) {
+            return false;
+        }
+        showItem(item);
+        return true;
+    }
+
+    private void observeStore() {
+        if (mObservingStore || null == mUri) {
+            return;
+        }
+        mObservingStore = true;
+        ForecastStore.get().registerObserver(this);
+        getActivity().getContentResolver().registerContentObserver(mUri, true, mWeatherObserver);
+    }
+
+    private void stopObservingStore() {
+        if (!mObservingStore) {
+            return;
+        }
+        mObservingStore = false;
+        ForecastStore.get().unregisterObserver(this);
+        getActivity().getContentResolver().unregisterContentObserver(mWeatherObserver);
+    }
+
+    /*
+        Hands the day over to a loader of its own, for good.
+     */
+    private void startLoader() {
+        if (mUsingLoader) {
+            return;
+        }
+        mUsingLoader = true;
+        stopObservingStore();
+        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+    }
+
+    @Override
+    public void onForecastChanged() {
+        if (mUsingLoader || isDetached()) {
+            return;
+        }
+        ForecastItem item = ForecastStore.get().getItem(
+                WeatherEntry.getLocationSettingFromUri(mUri), WeatherEntry.getDateFromUri(mUri));
+        if (null == item) {
+            // The list has moved on without this day
+            startLoader();
+        } else if (item != mItem) {
+            showItem(item);
+        }
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         if ( null != mUri ) {
             // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
-            return new CursorLoader(
+            // creating a Cursor for the data being displayed.  It waits out the bursts of
+            // changes a sync makes, and leaves the view alone if the day didn't change.  The
+            // day is read and formatted as a row of the list would be.
+            return new ForecastLoader(
                     getActivity(),
                     mUri,
-                    DETAIL_COLUMNS,
+                    ForecastFragment.FORECAST_COLUMNS,
                     null,
-                    null,
-                    null
+                    false
             );
         }
         ViewParent vp = getView().getParent();
@@ -191,79 +300,74 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
-
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
-            }
+        ForecastItem[] items = null != data
+                ? ((ForecastLoader.Page) data).getItems() : new ForecastItem[0];
+        if (items.length > 0) {
+            showItem(items[0]);
+        } else {
+            onDayShown();
+        }
+    }
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+    private void showItem(ForecastItem item) {
+        mItem = item;
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
 
+        if ( item.mUseLocalGraphics ) {
+            mIconView.setImageResource(item.mArtResource);
+        } else {
+            // Use weather art image
+            Glide.with(this)
+                    .load(item.mArtUrl)
+                    .error(item.mArtResource)
+                    .crossFade()
+                    .into(mIconView);
         }
+
+        // Update views for day of week and date
+        String dateText = Utility.getFullFriendlyDayString(getActivity(), item.mDate);
+        mDateView.setText(dateText);
+
+        // Description from weather condition ID
+        String description = item.mDescription;
+        mDescriptionView.setText(description);
+        mDescriptionView.setContentDescription(item.mDescriptionA11y);
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
+
+        mHighTempView.setText(item.mHigh);
+        mHighTempView.setContentDescription(item.mHighA11y);
+
+        mLowTempView.setText(item.mLow);
+        mLowTempView.setContentDescription(item.mLowA11y);
+
+        mHumidityView.setText(getActivity().getString(R.string.format_humidity, item.mHumidity));
+        mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
+        mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
+
+        mWindView.setText(Utility.getFormattedWind(getActivity(), item.mWindSpeed, item.mWindDegrees));
+        mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
+        mWindLabelView.setContentDescription(mWindView.getContentDescription());
+
+        mPressureView.setText(getString(R.string.format_pressure, item.mPressure));
+        mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
+        mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
+
+        // We still need this for the share intent
+        mForecast = String.format("%s - %s - %s/%s", dateText, description,
+                item.mHighValue, item.mLowValue);
+
+        onDayShown();
+    }
+
+    private void onDayShown() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -19,7 +19,10 @@ import android.content.Context;
 import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -30,13 +33,27 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.SunshineCalendar;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ *
+ * The rows come formatted by the {@link ForecastLoader}, so binding one only sets its views,
+ * and are compared with the rows on screen on a background thread.  Only the days that were
+ * added, removed or changed are then reported to the RecyclerView, so a sync that changes one
+ * day rebinds one row.
+ *
+ * A row's id is its date, which is what identifies a day across reloads.  The dates of the rows
+ * are indexed on every swap, so finding the position of a day, or of the selected id after the
+ * rows have moved, doesn't walk the list.
  */
-public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ItemChoiceManager.PositionLookup {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
@@ -44,7 +61,17 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
+    // Diffs are worked out one at a time, off the main thread
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
     private Cursor mCursor;
+    // The rows on screen.  Replaced only together with the notifications describing the change.
+    private ForecastItem[] mRows = new ForecastItem[0];
+    // The dates of mRows, in the same, ascending, order
+    private long[] mRowDates = new long[0];
+    // Bumped by every swap, so a diff finishing after a newer swap is dropped
+    private int mSwapGeneration;
+    final private Handler mMainHandler = new Handler(Looper.getMainLooper());
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +100,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                // Removed by a change that hasn't been laid out yet
+                return;
+            }
+            mClickHandler.onClick(mRows[adapterPosition].mDate, this);
             mICM.onClick(this);
         }
     }
@@ -90,6 +119,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mEmptyView = emptyView;
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
+        setHasStableIds(true);
     }
 
     /*
@@ -124,63 +154,49 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        ForecastItem item = mRows[position];
         int defaultImage;
-        boolean useLongToday;
+        String dayText;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = item.mArtResource;
+                dayText = item.mLongDayText;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = item.mIconResource;
+                dayText = item.mDayText;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( item.mUseLocalGraphics ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(item.mArtUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        // the animator can use this to re-find the original view.  Named after the day rather
+        // than the position, since rows that only move aren't rebound.
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + item.mDate);
 
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        forecastAdapterViewHolder.mDateView.setText(dayText);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(item.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(item.mDescriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(item.mHigh);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(item.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(item.mLow);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(item.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -208,16 +224,120 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.length;
     }
 
-    public void swapCursor(Cursor newCursor) {
+    @Override
+    public long getItemId(int position) {
+        return mRows[position].mDate;
+    }
+
+    @Override
+    public int getPositionForId(long id) {
+        return getPositionForDate(id);
+    }
+
+    /*
+        Replaces the rows, reindexes them and moves the selection to where its day now is.
+        Call it right before notifying the change, so the rows rebound see the new selection.
+     */
+    private void setRows(ForecastItem[] rows) {
+        long[] dates = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            dates[i] = rows[i].mDate;
+        }
+        mRows = rows;
+        mRowDates = dates;
+        mICM.confirmCheckedPositionsById(rows.length);
+    }
+
+    /**
+     * Shows the formatted rows of the cursor.  Going from or to an empty list is shown at once,
+     * otherwise the rows on screen stay until the diff against them has been worked out.
+     *
+     * @param newItems the rows of newCursor, in its order, as built by {@link ForecastItem}
+     */
+    public void swapCursor(Cursor newCursor, ForecastItem[] newItems) {
         mCursor = newCursor;
-        notifyDataSetChanged();
+        final ForecastItem[] oldRows = mRows;
+        final ForecastItem[] newRows = null == newCursor ? new ForecastItem[0] : newItems;
+        final int generation = ++mSwapGeneration;
+
+        if (oldRows.length == 0 || newRows.length == 0) {
+            setRows(newRows);
+            if (oldRows.length > 0) {
+                notifyItemRangeRemoved(0, oldRows.length);
+            } else if (newRows.length > 0) {
+                notifyItemRangeInserted(0, newRows.length);
+            }
+            mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            return;
+        }
+
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The days are in date order, so there are no moves to look for
+                final DiffUtil.DiffResult diff =
+                        DiffUtil.calculateDiff(new RowDiff(oldRows, newRows), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mSwapGeneration) {
+                            applyRows(newRows, diff);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyRows(ForecastItem[] newRows, DiffUtil.DiffResult diff) {
+        long oldFirstDate = mRows[0].mDate;
+        setRows(newRows);
+        diff.dispatchUpdatesTo(this);
+        if (mUseTodayLayout && oldFirstDate != newRows[0].mDate) {
+            // The first row has a layout of its own, which a row that only moved into or out
+            // of the first place wouldn't get
+            notifyItemChanged(0);
+            if (newRows.length > 1) {
+                notifyItemChanged(1);
+            }
+        }
+    }
+
+    /**
+     * Shows rows kept from an earlier run, if nothing has been shown yet.  The cursor's rows
+     * replace them as they would any others, so only the days that changed since are rebound.
+     */
+    void showSnapshot(ForecastItem[] items) {
+        if (mRows.length > 0 || null != mCursor) {
+            return;
+        }
+        setRows(items);
+        ++mSwapGeneration;
+        notifyItemRangeInserted(0, items.length);
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    /**
+     * The position of the day with this date, or {@link RecyclerView#NO_POSITION}.
+     */
+    int getPositionForDate(long date) {
+        long[] dates = mRowDates;
+        if (dates.length == 0) {
+            return RecyclerView.NO_POSITION;
+        }
+        // The days are usually one after the other, which puts a day where its distance from
+        // the first one says.  Rounded, since a day with a daylight saving change isn't 24 hours.
+        long guess = Math.round((double) (date - dates[0]) / SunshineCalendar.DAY_IN_MILLIS);
+        if (guess >= 0 && guess < dates.length && dates[(int) guess] == date) {
+            return (int) guess;
+        }
+        int position = Arrays.binarySearch(dates, date);
+        return position >= 0 ? position : RecyclerView.NO_POSITION;
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
@@ -228,4 +348,38 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
             vfh.onClick(vfh.itemView);
         }
     }
+
+    /**
+     * Compares two lists of rows: a day is the same item if it has the same date, and needs
+     * rebinding if any text or image the list shows differs.
+     */
+    private static final class RowDiff extends DiffUtil.Callback {
+        private final ForecastItem[] mOldRows;
+        private final ForecastItem[] mNewRows;
+
+        RowDiff(ForecastItem[] oldRows, ForecastItem[] newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows[oldItemPosition].mDate == mNewRows[newItemPosition].mDate;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows[oldItemPosition].hasSameContents(mNewRows[newItemPosition]);
+        }
+    }
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -28,7 +29,6 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -48,6 +48,8 @@ import android.widget.TextView;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.ArrayList;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
@@ -59,13 +61,34 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // Whether the rows on screen are the snapshot, shown until the first page is loaded
+    private boolean mShowingSnapshot;
 
     private static final String SELECTED_KEY = "selected_position";
 
+    // The forecast is read a page at a time as the list scrolls towards its end, so the first
+    // paint and the memory held don't grow with the history kept.  Page i is read by loader
+    // FORECAST_LOADER + i, starting after the last date of page i - 1.
     private static final int FORECAST_LOADER = 0;
-    // For the forecast view we're showing only a small subset of the stored data.
-    // Specify the columns we need.
-    private static final String[] FORECAST_COLUMNS = {
+    private static final int FORECAST_PAGE_SIZE = 20;
+    // How many rows from the end of the list the next page starts loading
+    private static final int FORECAST_PREFETCH_DISTANCE = 5;
+    private static final String ARG_AFTER_DATE = "after_date";
+    // Where each page after the first starts, so the pages survive the fragment being re-created
+    private static final String PAGE_AFTER_DATES_KEY = "page_after_dates";
+
+    // The pages read so far.  A null page is still loading.
+    private final ArrayList<Cursor> mForecastPages = new ArrayList<Cursor>();
+    private final Runnable mLoadNextPageRunnable = new Runnable() {
+        @Override
+        public void run() {
+            loadNextPageIfNeeded();
+        }
+    };
+
+    // The columns of a day the forecast list and the detail view show.  The list's rows carry
+    // the detail's columns too, so a day it has loaded can be shown without another query.
+    static final String[] FORECAST_COLUMNS = {
             // In this case the id needs to be fully qualified with a table name, since
             // the content provider joins the location & weather tables in the background
             // (both have an _id column)
@@ -80,7 +103,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
     };
 
     // These indices are tied to FORECAST_COLUMNS.  If FORECAST_COLUMNS changes, these
@@ -94,6 +121,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     static final int COL_WEATHER_CONDITION_ID = 6;
     static final int COL_COORD_LAT = 7;
     static final int COL_COORD_LONG = 8;
+    static final int COL_WEATHER_HUMIDITY = 9;
+    static final int COL_WEATHER_PRESSURE = 10;
+    static final int COL_WEATHER_WIND_SPEED = 11;
+    static final int COL_WEATHER_DEGREES = 12;
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -117,6 +148,19 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         setHasOptionsMenu(true);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        // The loaders run while started, keeping the store's rows current
+        ForecastStore.get().setLive(true);
+    }
+
+    @Override
+    public void onStop() {
+        ForecastStore.get().setLive(false);
+        super.onStop();
+    }
+
     @Override
     public void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
@@ -200,6 +244,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // specify an adapter (see also next example)
         mRecyclerView.setAdapter(mForecastAdapter);
 
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) {
+                    loadNextPageIfNeeded();
+                }
+            }
+        });
+
         final View parallaxView = rootView.findViewById(R.id.parallax_bar);
         if (null != parallaxView) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -259,15 +312,116 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        if (null == getLoaderManager().getLoader(FORECAST_LOADER)) {
+            // Nothing's loaded yet, so show the rows of the last run while the query runs
+            ForecastItem[] snapshot = ForecastSnapshot.read(getActivity());
+            if (null != snapshot && snapshot.length > 0) {
+                mForecastAdapter.showSnapshot(snapshot);
+                mShowingSnapshot = true;
+                selectWhenRowsDrawn();
+            }
+        }
+        mForecastPages.clear();
+        mForecastPages.add(null);
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
+        long[] afterDates = null != savedInstanceState
+                ? savedInstanceState.getLongArray(PAGE_AFTER_DATES_KEY) : null;
+        int pageCount = 1 + (null != afterDates ? afterDates.length : 0);
+        for (int page = 1; page < pageCount; page++) {
+            // Picks up the page's loader if it was kept, otherwise reads the page again
+            Bundle args = new Bundle();
+            args.putLong(ARG_AFTER_DATE, afterDates[page - 1]);
+            mForecastPages.add(null);
+            getLoaderManager().initLoader(FORECAST_LOADER + page, args, this);
+        }
+        // Kept loaders of pages past those would still report to the fragment that's gone
+        for (int page = pageCount; null != getLoaderManager().getLoader(FORECAST_LOADER + page);
+                page++) {
+            getLoaderManager().destroyLoader(FORECAST_LOADER + page);
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
+        dropPagesAfter(0);
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
+    /*
+        Starts loading the page after the last one once the list has been scrolled close to its
+        end, unless a page is already loading or the last page wasn't full.
+     */
+    private void loadNextPageIfNeeded() {
+        int pageCount = mForecastPages.size();
+        if (pageCount == 0 || null == mRecyclerView) {
+            return;
+        }
+        Cursor lastPage = mForecastPages.get(pageCount - 1);
+        if (null == lastPage || lastPage.getCount() < FORECAST_PAGE_SIZE) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) mRecyclerView.getLayoutManager();
+        if (layoutManager.findLastVisibleItemPosition()
+                < mForecastAdapter.getItemCount() - FORECAST_PREFETCH_DISTANCE) {
+            return;
+        }
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_DATE, getLastDate(lastPage));
+        mForecastPages.add(null);
+        // Restart rather than init, so a loader kept from before a rotation can't hand back a
+        // page that starts somewhere else
+        getLoaderManager().restartLoader(FORECAST_LOADER + pageCount, args, this);
+    }
+
+    private void dropPagesAfter(int page) {
+        for (int i = mForecastPages.size() - 1; i > page; i--) {
+            // Removed first, so onLoaderReset leaves the list alone
+            mForecastPages.remove(i);
+            getLoaderManager().destroyLoader(FORECAST_LOADER + i);
+        }
+    }
+
+    private static long getLastDate(Cursor page) {
+        return page.moveToLast() ? page.getLong(COL_WEATHER_DATE) : -1;
+    }
+
+    /*
+        The pages loaded so far, up to the first one that's still loading, as one cursor.
+     */
+    private Cursor getLoadedPages() {
+        int loaded = 0;
+        while (loaded < mForecastPages.size() && null != mForecastPages.get(loaded)) {
+            loaded++;
+        }
+        if (loaded == 0) {
+            return null;
+        } else if (loaded == 1) {
+            return mForecastPages.get(0);
+        }
+        return new MergeCursor(mForecastPages.subList(0, loaded).toArray(new Cursor[loaded]));
+    }
+
+    /*
+        The formatted rows of the same pages as getLoadedPages, in the same order.
+     */
+    private ForecastItem[] getLoadedItems() {
+        int count = 0;
+        int loaded = 0;
+        while (loaded < mForecastPages.size() && null != mForecastPages.get(loaded)) {
+            count += ((ForecastLoader.Page) mForecastPages.get(loaded)).getItems().length;
+            loaded++;
+        }
+        ForecastItem[] items = new ForecastItem[count];
+        int offset = 0;
+        for (int i = 0; i < loaded; i++) {
+            ForecastItem[] pageItems = ((ForecastLoader.Page) mForecastPages.get(i)).getItems();
+            System.arraycopy(pageItems, 0, items, offset, pageItems.length);
+            offset += pageItems.length;
+        }
+        return items;
+    }
+
     private void openPreferredLocationInMap() {
         // Using the URI scheme for showing a location found on a map.  This super-handy
         // intent can is detailed in the "Common Intents" page of Android's developer site:
@@ -297,14 +451,25 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public void onSaveInstanceState(Bundle outState) {
         // When tablets rotate, the currently selected list item needs to be saved.
         mForecastAdapter.onSaveInstanceState(outState);
+        // Each page after the first starts after the last date of the page before it
+        int pageCount = 1;
+        while (pageCount < mForecastPages.size() && null != mForecastPages.get(pageCount - 1)) {
+            pageCount++;
+        }
+        long[] afterDates = new long[pageCount - 1];
+        for (int page = 1; page < pageCount; page++) {
+            afterDates[page - 1] = getLastDate(mForecastPages.get(page - 1));
+        }
+        outState.putLongArray(PAGE_AFTER_DATES_KEY, afterDates);
         super.onSaveInstanceState(outState);
     }
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // This is called when a new Loader needs to be created.  This
-        // fragment only uses one loader, so we don't care about checking the id.
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // This is called when a new Loader needs to be created.  Each page of the forecast
+        // has a loader of its own.
+        int page = id - FORECAST_LOADER;
 
         // To only show current and future dates, filter the query to return weather only for
         // dates after or including today.
@@ -313,78 +478,121 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri;
+        if (page == 0) {
+            weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationFirstPage(
+                    locationSetting, System.currentTimeMillis(), FORECAST_PAGE_SIZE);
+        } else {
+            weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                    locationSetting, args.getLong(ARG_AFTER_DATE), FORECAST_PAGE_SIZE);
+        }
 
-        return new CursorLoader(getActivity(),
+        // Formats the rows on the loader's thread too, so binding them is cheap
+        return new ForecastLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
-                null,
-                null,
-                sortOrder);
+                sortOrder,
+                page == 0);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+        int page = loader.getId() - FORECAST_LOADER;
+        if (page >= mForecastPages.size()) {
+            if (page > 0) {
+                // Left over from pages that have since been dropped
+                return;
+            }
+            mForecastPages.add(null);
+        }
+        Cursor previous = mForecastPages.set(page, data);
+        if (null != previous && getLastDate(previous) != getLastDate(data)) {
+            // The pages after this one started after its old last date, so they're re-read
+            dropPagesAfter(page);
+        }
+        ForecastItem[] items = getLoadedItems();
+        mForecastAdapter.swapCursor(getLoadedPages(), items);
+        publishRows(items);
+        mRecyclerView.post(mLoadNextPageRunnable);
+        if (page > 0) {
+            return;
+        }
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
-        } else {
-            mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
-                @Override
-                public boolean onPreDraw() {
-                    // Since we know we're going to get items, we keep the listener around until
-                    // we see Children.
-                    if (mRecyclerView.getChildCount() > 0) {
-                        mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
-                        int position = mForecastAdapter.getSelectedItemPosition();
-                        if (position == RecyclerView.NO_POSITION &&
-                                -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-                            for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
-                                    position = i;
-                                    break;
-                                }
-                            }
-                        }
-                        if (position == RecyclerView.NO_POSITION) position = 0;
-                        // If we don't need to restart the loader, and there's a desired position to restore
-                        // to, do so now.
-                        mRecyclerView.smoothScrollToPosition(position);
-                        RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(position);
-                        if (null != vh && mAutoSelectView) {
-                            mForecastAdapter.selectView(vh);
-                        }
-                        if ( mHoldForTransition ) {
-                            getActivity().supportStartPostponedEnterTransition();
-                        }
-                        return true;
-                    }
-                    return false;
-                }
-            });
+        } else if (!mShowingSnapshot) {
+            // After the snapshot there's nothing left to do: its rows were already selected and
+            // scrolled to, and the real ones just replaced them in place
+            selectWhenRowsDrawn();
         }
-
+        mShowingSnapshot = false;
     }
 
-
+    /*
+        Once the list has drawn its rows, scrolls to and selects the one wanted, and lets the
+        postponed enter transition run.
+     */
+    private void selectWhenRowsDrawn() {
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                // Since we know we're going to get items, we keep the listener around until
+                // we see Children.
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    StartupTrace.mark(StartupTrace.PHASE_FIRST_FORECAST_ROW);
+                    int position = mForecastAdapter.getSelectedItemPosition();
+                    if (position == RecyclerView.NO_POSITION &&
+                            -1 != mInitialSelectedDate) {
+                        position = mForecastAdapter.getPositionForDate(mInitialSelectedDate);
+                    }
+                    if (position == RecyclerView.NO_POSITION) position = 0;
+                    // If we don't need to restart the loader, and there's a desired position to restore
+                    // to, do so now.
+                    mRecyclerView.smoothScrollToPosition(position);
+                    RecyclerView.ViewHolder vh = mRecyclerView.findViewHolderForAdapterPosition(position);
+                    if (null != vh && mAutoSelectView) {
+                        mForecastAdapter.selectView(vh);
+                    }
+                    if ( mHoldForTransition ) {
+                        getActivity().supportStartPostponedEnterTransition();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (getActivity().isFinishing()) {
+            // Kept through a rotation, for the detail view of the activity that follows
+            ForecastStore.get().clear();
+        }
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
+            mRecyclerView.removeCallbacks(mLoadNextPageRunnable);
         }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
+        int page = loader.getId() - FORECAST_LOADER;
+        if (page < mForecastPages.size()) {
+            mForecastPages.set(page, null);
+        }
+        ForecastItem[] items = getLoadedItems();
+        mForecastAdapter.swapCursor(getLoadedPages(), items);
+        publishRows(items);
+    }
+
+    /*
+        Shares the rows loaded with the detail view.
+     */
+    private void publishRows(ForecastItem[] items) {
+        ForecastStore.get().publish(Utility.getPreferredLocation(getActivity()), items);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+/**
+ * One row of the forecast list, formatted and ready to bind.
+ *
+ * Built by the {@link ForecastLoader} on its background thread, so binding a row is a matter of
+ * setting a few fields: the preferences, resources and formatters are only read once per page.
+ * Immutable, so the adapter can compare the rows it shows with a new page from any thread.
+ * Also carries the rest of the day's weather, so the {@link DetailFragment} can show a day the
+ * list has loaded from the {@link ForecastStore}.
+ */
+final class ForecastItem {
+
+    final long mDate;
+    final int mWeatherId;
+
+    // The date as the first row shows it when it has the today layout, and as the other rows do
+    final String mLongDayText;
+    final String mDayText;
+
+    // The art in the today layout and the icon in the others, or the fallback for mArtUrl
+    final int mArtResource;
+    final int mIconResource;
+    // Null if the local graphics are used
+    final String mArtUrl;
+    final boolean mUseLocalGraphics;
+
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHigh;
+    final String mHighA11y;
+    final String mLow;
+    final String mLowA11y;
+
+    // The rest of the day, as stored, for the detail view
+    final double mHighValue;
+    final double mLowValue;
+    final float mHumidity;
+    final float mPressure;
+    final float mWindSpeed;
+    final float mWindDegrees;
+
+    private ForecastItem(Context context, Cursor cursor, boolean useLocalGraphics) {
+        mDate = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        mWeatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        mLongDayText = Utility.getFriendlyDayString(context, mDate, true);
+        String dayText = Utility.getFriendlyDayString(context, mDate, false);
+        mDayText = dayText.equals(mLongDayText) ? mLongDayText : dayText;
+
+        mArtResource = Utility.getArtResourceForWeatherCondition(mWeatherId);
+        mIconResource = Utility.getIconResourceForWeatherCondition(mWeatherId);
+        mUseLocalGraphics = useLocalGraphics;
+        mArtUrl = useLocalGraphics
+                ? null : Utility.getArtUrlForWeatherCondition(context, mWeatherId);
+
+        mDescription = Utility.getStringForWeatherCondition(context, mWeatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+        mHighValue = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        mHigh = Utility.formatTemperature(context, mHighValue);
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHigh);
+        mLowValue = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        mLow = Utility.formatTemperature(context, mLowValue);
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLow);
+
+        mHumidity = cursor.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY);
+        mPressure = cursor.getFloat(ForecastFragment.COL_WEATHER_PRESSURE);
+        mWindSpeed = cursor.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED);
+        mWindDegrees = cursor.getFloat(ForecastFragment.COL_WEATHER_DEGREES);
+    }
+
+    /**
+     * A row read back from a {@link ForecastSnapshot}, as it was formatted then.
+     */
+    ForecastItem(long date, int weatherId, String longDayText, String dayText, int artResource,
+                 int iconResource, String artUrl, boolean useLocalGraphics, String description,
+                 String descriptionA11y, String high, String highA11y, String low,
+                 String lowA11y, double highValue, double lowValue, float humidity,
+                 float pressure, float windSpeed, float windDegrees) {
+        mDate = date;
+        mWeatherId = weatherId;
+        mLongDayText = longDayText;
+        mDayText = dayText;
+        mArtResource = artResource;
+        mIconResource = iconResource;
+        mArtUrl = artUrl;
+        mUseLocalGraphics = useLocalGraphics;
+        mDescription = description;
+        mDescriptionA11y = descriptionA11y;
+        mHigh = high;
+        mHighA11y = highA11y;
+        mLow = low;
+        mLowA11y = lowA11y;
+        mHighValue = highValue;
+        mLowValue = lowValue;
+        mHumidity = humidity;
+        mPressure = pressure;
+        mWindSpeed = windSpeed;
+        mWindDegrees = windDegrees;
+    }
+
+    /**
+     * Formats every row of a cursor over {@link ForecastFragment}'s columns.  Reads the
+     * preferences, so don't call it on the main thread.
+     */
+    static ForecastItem[] fromCursor(Context context, Cursor cursor) {
+        boolean useLocalGraphics = Utility.usingLocalGraphics(context);
+        ForecastItem[] items = new ForecastItem[cursor.getCount()];
+        for (int i = 0; i < items.length; i++) {
+            cursor.moveToPosition(i);
+            items[i] = new ForecastItem(context, cursor, useLocalGraphics);
+        }
+        return items;
+    }
+
+    /**
+     * Whether the row would look any different bound to the other item.
+     */
+    boolean hasSameContents(ForecastItem other) {
+        return mWeatherId == other.mWeatherId
+                && mUseLocalGraphics == other.mUseLocalGraphics
+                && mLongDayText.equals(other.mLongDayText)
+                && mDayText.equals(other.mDayText)
+                && TextUtils.equals(mArtUrl, other.mArtUrl)
+                && mDescription.equals(other.mDescription)
+                && mHigh.equals(other.mHigh)
+                && mLow.equals(other.mLow);
+    }
+}
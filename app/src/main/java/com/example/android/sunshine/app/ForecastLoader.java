@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+
+/**
+ * Loads a page of the forecast and formats its rows on the loader's thread.  Hands back a
+ * {@link Page}: the cursor, for the fields the fragment still reads from it, together with the
+ * {@link ForecastItem}s the list binds.  The first page's rows are also kept as the
+ * {@link ForecastSnapshot} the next cold start shows.
+ */
+class ForecastLoader extends DebouncedCursorLoader {
+
+    private final boolean mFirstPage;
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String sortOrder,
+                   boolean firstPage) {
+        super(context, uri, projection, null, null, sortOrder);
+        mFirstPage = firstPage;
+    }
+
+    @Override
+    protected Cursor onLoaded(Cursor cursor) {
+        ForecastItem[] items = ForecastItem.fromCursor(getContext(), cursor);
+        // A loader given up on may be for a location that's no longer the preferred one
+        if (mFirstPage && !isAbandoned() && !isReset()) {
+            ForecastSnapshot.write(getContext(), items);
+        }
+        return new Page(cursor, items);
+    }
+
+    /**
+     * A page of the forecast and its formatted rows, in the same order.
+     */
+    static final class Page extends CursorWrapper {
+        private final ForecastItem[] mItems;
+
+        Page(Cursor cursor, ForecastItem[] items) {
+            super(cursor);
+            mItems = items;
+        }
+
+        ForecastItem[] getItems() {
+            return mItems;
+        }
+    }
+}
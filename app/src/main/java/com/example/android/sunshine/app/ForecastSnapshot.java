@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.SunshineCalendar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The first page of the forecast as it was last shown, kept in a small file so a cold start can
+ * show it before the database has even been opened.
+ *
+ * {@link ForecastLoader} writes it on its thread after every load of the first page, and
+ * {@link ForecastFragment} reads it on the main thread when it has nothing loaded yet, then
+ * shows the real rows once they come.  The rows are kept formatted, so a snapshot is only read
+ * back by the same build, for the same location, day, time zone, locale and display settings it
+ * was written with.  Anything else, including a file that can't be read, counts as no snapshot.
+ */
+final class ForecastSnapshot {
+
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_snapshot";
+    // Bumped whenever the layout of the file changes
+    private static final int FORMAT_VERSION = 2;
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * The rows last written, if they're still good to show, or null.  Reads a file, but one
+     * small enough for the main thread.
+     */
+    static ForecastItem[] read(Context context) {
+        File file = getFile(context);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (!readHeader(in, getHeader(context))) {
+                return null;
+            }
+            ForecastItem[] items = new ForecastItem[in.readInt()];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = readItem(in);
+            }
+            return items;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't read the forecast snapshot", e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Replaces the snapshot with these rows, or removes it if there are none.  Call it off the
+     * main thread.
+     */
+    static synchronized void write(Context context, ForecastItem[] items) {
+        File file = getFile(context);
+        if (items.length == 0) {
+            file.delete();
+            return;
+        }
+        // Written next to it and renamed over it, so a reader never sees half a file
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            writeHeader(out, getHeader(context));
+            out.writeInt(items.length);
+            for (ForecastItem item : items) {
+                writeItem(out, item);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't write the forecast snapshot", e);
+            close(out);
+            temp.delete();
+            file.delete();
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /*
+        Everything the formatted rows depend on, besides the weather itself.  The resource ids
+        in them are only good for the build that wrote them.
+     */
+    private static String[] getHeader(Context context) {
+        SunshineSettings settings = SunshineSettings.get(context);
+        return new String[] {
+                String.valueOf(FORMAT_VERSION),
+                String.valueOf(BuildConfig.VERSION_CODE),
+                settings.getPreferredLocation(),
+                String.valueOf(settings.isMetric()),
+                settings.getArtUrlFormat(),
+                Locale.getDefault().toString(),
+                SunshineCalendar.getTimeZone().getID(),
+                String.valueOf(SunshineCalendar.getJulianDay(System.currentTimeMillis()))
+        };
+    }
+
+    private static void writeHeader(DataOutputStream out, String[] header) throws IOException {
+        out.writeInt(header.length);
+        for (String value : header) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static boolean readHeader(DataInputStream in, String[] expected) throws IOException {
+        if (in.readInt() != expected.length) {
+            return false;
+        }
+        for (String value : expected) {
+            if (!value.equals(in.readUTF())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeItem(DataOutputStream out, ForecastItem item) throws IOException {
+        out.writeLong(item.mDate);
+        out.writeInt(item.mWeatherId);
+        out.writeUTF(item.mLongDayText);
+        out.writeUTF(item.mDayText);
+        out.writeInt(item.mArtResource);
+        out.writeInt(item.mIconResource);
+        out.writeBoolean(item.mUseLocalGraphics);
+        if (!item.mUseLocalGraphics) {
+            out.writeUTF(item.mArtUrl);
+        }
+        out.writeUTF(item.mDescription);
+        out.writeUTF(item.mDescriptionA11y);
+        out.writeUTF(item.mHigh);
+        out.writeUTF(item.mHighA11y);
+        out.writeUTF(item.mLow);
+        out.writeUTF(item.mLowA11y);
+        out.writeDouble(item.mHighValue);
+        out.writeDouble(item.mLowValue);
+        out.writeFloat(item.mHumidity);
+        out.writeFloat(item.mPressure);
+        out.writeFloat(item.mWindSpeed);
+        out.writeFloat(item.mWindDegrees);
+    }
+
+    private static ForecastItem readItem(DataInputStream in) throws IOException {
+        long date = in.readLong();
+        int weatherId = in.readInt();
+        String longDayText = in.readUTF();
+        String dayText = in.readUTF();
+        int artResource = in.readInt();
+        int iconResource = in.readInt();
+        boolean useLocalGraphics = in.readBoolean();
+        String artUrl = useLocalGraphics ? null : in.readUTF();
+        return new ForecastItem(date, weatherId, longDayText, dayText, artResource, iconResource,
+                artUrl, useLocalGraphics, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                in.readUTF(), in.readUTF(), in.readDouble(), in.readDouble(), in.readFloat(),
+                in.readFloat(), in.readFloat(), in.readFloat());
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.ArrayList;
+
+/**
+ * The days the forecast list has loaded, shared with the detail view so it can show one of them
+ * without reading it again.
+ *
+ * {@link ForecastFragment} publishes its rows every time its pages load and clears them when its
+ * activity finishes, and tells the store whether it's started, i.e. whether its loaders are
+ * keeping the rows current.  {@link DetailFragment} looks its day up here first and observes the
+ * store while it's started, so a sync that changes the day reaches it through the list's query.
+ * Used on the main thread only.
+ */
+final class ForecastStore {
+
+    interface Observer {
+        /**
+         * Called after the rows have been replaced.
+         */
+        void onForecastChanged();
+    }
+
+    private static final ForecastStore sInstance = new ForecastStore();
+
+    private final ArrayList<Observer> mObservers = new ArrayList<Observer>();
+    // The location the rows are for, and the rows in date order
+    private String mLocation;
+    private ForecastItem[] mItems = new ForecastItem[0];
+    private boolean mLive;
+
+    private ForecastStore() {
+    }
+
+    static ForecastStore get() {
+        return sInstance;
+    }
+
+    /**
+     * Replaces the rows with the list's, and tells the observers.
+     */
+    void publish(String location, ForecastItem[] items) {
+        mLocation = location;
+        mItems = items;
+        // Copied, so an observer can unregister itself while it's told
+        Observer[] observers = mObservers.toArray(new Observer[mObservers.size()]);
+        for (Observer observer : observers) {
+            observer.onForecastChanged();
+        }
+    }
+
+    void clear() {
+        publish(null, new ForecastItem[0]);
+        mLive = false;
+    }
+
+    /**
+     * Whether the list is started, so the rows follow the changes made to the forecast.
+     */
+    boolean isLive() {
+        return mLive;
+    }
+
+    void setLive(boolean live) {
+        mLive = live;
+    }
+
+    /**
+     * The day at this location, or null if the list hasn't loaded it.
+     */
+    ForecastItem getItem(String location, long date) {
+        if (null == location || !location.equals(mLocation)) {
+            return null;
+        }
+        ForecastItem[] items = mItems;
+        int low = 0;
+        int high = items.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleDate = items[middle].mDate;
+            if (middleDate < date) {
+                low = middle + 1;
+            } else if (middleDate > date) {
+                high = middle - 1;
+            } else {
+                return items[middle];
+            }
+        }
+        return null;
+    }
+
+    void registerObserver(Observer observer) {
+        if (!mObservers.contains(observer)) {
+            mObservers.add(observer);
+        }
+    }
+
+    void unregisterObserver(Observer observer) {
+        mObservers.remove(observer);
+    }
+}
@@ -46,6 +46,18 @@ public class ItemChoiceManager {
         }
     };
 
+    /**
+     * An adapter with stable ids that can find the position of an id without searching for it.
+     * The selection then follows its items however far they move, and stays on an item that's
+     * missing for a while.
+     */
+    public interface PositionLookup {
+        /**
+         * @return the position of the item with this id, or {@link RecyclerView#NO_POSITION}
+         */
+        int getPositionForId(long id);
+    }
+
     private ItemChoiceManager() {
     }
 
@@ -158,23 +170,37 @@ public class ItemChoiceManager {
         // Clear out the positional check states, we'll rebuild it below from IDs.
         mCheckStates.clear();
 
+        final int itemCount = mAdapter.getItemCount();
         for (int checkedIndex = 0; checkedIndex < mCheckedIdStates.size(); checkedIndex++) {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
+            final long lastPosId = lastPos < itemCount ? mAdapter.getItemId(lastPos) : RecyclerView.NO_ID;
             if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
                 boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
-                        found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.setValueAt(checkedIndex, searchPos);
-                        break;
+                if (mAdapter instanceof PositionLookup) {
+                    final int position = ((PositionLookup) mAdapter).getPositionForId(id);
+                    if (position != RecyclerView.NO_POSITION) {
+                        mCheckStates.put(position, true);
+                        mCheckedIdStates.setValueAt(checkedIndex, position);
+                    }
+                    // An id that isn't there may only not be loaded yet, e.g. while the adapter
+                    // is empty between loads or has only read part of its items.  It stays
+                    // checked, and shows as such once it's back.
+                    found = true;
+                } else {
+                    // Look around to see if the ID is nearby. If not, uncheck it.
+                    final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
+                    final int end = Math.min(Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE,
+                            oldItemCount), itemCount);
+                    for (int searchPos = start; searchPos < end; searchPos++) {
+                        final long searchId = mAdapter.getItemId(searchPos);
+                        if (id == searchId) {
+                            found = true;
+                            mCheckStates.put(searchPos, true);
+                            mCheckedIdStates.setValueAt(checkedIndex, searchPos);
+                            break;
+                        }
                     }
                 }
 
@@ -20,26 +20,43 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
+import android.support.v7.widget.ListPopupWindow;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.PopupWindow;
+import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.StoredLocation;
+import com.example.android.sunshine.app.data.WeatherRepository;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
 import com.google.android.gms.common.GooglePlayServicesRepairableException;
 import com.google.android.gms.location.places.ui.PlacePicker;
 
+import java.util.List;
+
 public class LocationEditTextPreference extends EditTextPreference {
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
+    // The most stored locations suggested under the location being typed
+    static final private int MAX_SUGGESTIONS = 5;
     private int mMinLength;
 
+    private ListPopupWindow mSuggestions;
+    private ArrayAdapter<StoredLocation> mSuggestionAdapter;
+    private TextView mValidation;
+    private SearchTask mSearchTask;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -103,11 +120,41 @@ public class LocationEditTextPreference extends EditTextPreference {
         return view;
     }
 
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        super.onAddEditTextToDialogView(dialogView, editText);
+
+        // Says under the text whether it's a location we already have weather for
+        ViewGroup container = (ViewGroup) editText.getParent();
+        mValidation = new TextView(getContext());
+        mValidation.setTextAppearance(getContext(), android.R.style.TextAppearance_Small);
+        container.addView(mValidation, container.indexOfChild(editText) + 1,
+                new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                        ViewGroup.LayoutParams.WRAP_CONTENT));
+    }
+
     @Override
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
+        mSuggestionAdapter = new ArrayAdapter<StoredLocation>(getContext(),
+                android.R.layout.simple_dropdown_item_1line);
+        mSuggestions = new ListPopupWindow(getContext());
+        mSuggestions.setAnchorView(et);
+        mSuggestions.setAdapter(mSuggestionAdapter);
+        mSuggestions.setInputMethodMode(PopupWindow.INPUT_METHOD_NEEDED);
+        mSuggestions.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                String locationSetting =
+                        mSuggestionAdapter.getItem(position).getLocationSetting();
+                et.setText(locationSetting);
+                et.setSelection(locationSetting.length());
+                mSuggestions.dismiss();
+            }
+        });
+
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -136,7 +183,89 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+                search(s.toString());
             }
         });
+        search(et.getText().toString());
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        super.onDialogClosed(positiveResult);
+        if (mSearchTask != null) {
+            mSearchTask.cancel(false);
+            mSearchTask = null;
+        }
+        if (mSuggestions != null) {
+            mSuggestions.dismiss();
+            mSuggestions = null;
+        }
+    }
+
+    // Looks the text up among the stored locations, replacing any lookup still running
+    private void search(String text) {
+        if (mSearchTask != null) {
+            mSearchTask.cancel(false);
+        }
+        mSearchTask = new SearchTask(text);
+        mSearchTask.execute();
+    }
+
+    private void showSearchResults(String text, List<StoredLocation> locations) {
+        if (mSuggestions == null) {
+            // The dialog has been closed
+            return;
+        }
+
+        // A location whose whole setting is the text comes first
+        StoredLocation match = null;
+        if (!locations.isEmpty()
+                && locations.get(0).getLocationSetting().equalsIgnoreCase(text.trim())) {
+            match = locations.get(0);
+        }
+        if (text.trim().length() < mMinLength) {
+            mValidation.setText(null);
+        } else if (match != null) {
+            mValidation.setText(getContext().getString(
+                    R.string.pref_location_known_description, match.getCityName()));
+        } else {
+            mValidation.setText(R.string.pref_location_new_description);
+        }
+
+        mSuggestionAdapter.setNotifyOnChange(false);
+        mSuggestionAdapter.clear();
+        for (StoredLocation location : locations) {
+            if (location != match) {
+                mSuggestionAdapter.add(location);
+            }
+        }
+        mSuggestionAdapter.notifyDataSetChanged();
+        if (mSuggestionAdapter.isEmpty()) {
+            mSuggestions.dismiss();
+        } else if (!mSuggestions.isShowing()) {
+            mSuggestions.show();
+        }
+    }
+
+    private class SearchTask extends AsyncTask<Void, Void, List<StoredLocation>> {
+        private final String mText;
+
+        SearchTask(String text) {
+            mText = text;
+        }
+
+        @Override
+        protected List<StoredLocation> doInBackground(Void... params) {
+            return WeatherRepository.getInstance(getContext())
+                    .searchLocations(mText, MAX_SUGGESTIONS);
+        }
+
+        @Override
+        protected void onPostExecute(List<StoredLocation> locations) {
+            if (mSearchTask == this) {
+                mSearchTask = null;
+                showSearchResults(mText, locations);
+            }
+        }
     }
 }
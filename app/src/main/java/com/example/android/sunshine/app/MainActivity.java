@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
@@ -31,6 +32,7 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
@@ -40,6 +42,9 @@ import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 public class MainActivity extends AppCompatActivity implements ForecastFragment.Callback,
         GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
 
@@ -48,20 +53,19 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     private final static int PLAY_SERVICES_RESOLUTION_REQUEST = 9000;
     public static final String SENT_TOKEN_TO_SERVER = "sentTokenToServer";
 
+    // Startup work that talks to other processes runs here, one job at a time
+    private static final Executor sStartupExecutor = Executors.newSingleThreadExecutor();
+
     private boolean mTwoPane;
     private String mLocation;
+    // Null until the first frame has been drawn
     public static GoogleApiClient mGoogleApiClient;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.mark(StartupTrace.PHASE_ACTIVITY_CREATE);
         super.onCreate(savedInstanceState);
 
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
-
         mLocation = Utility.getPreferredLocation(this);
         Uri contentUri = getIntent() != null ? getIntent().getData() : null;
 
@@ -102,24 +106,70 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
                     WeatherContract.WeatherEntry.getDateFromUri(contentUri));
         }
 
-        SunshineSyncAdapter.initializeSyncAdapter(this);
+        // Only what the first frame needs is done up to here.  The rest waits until it's drawn.
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Posted, so it runs once this frame is done drawing
+                        decorView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                StartupTrace.mark(StartupTrace.PHASE_FIRST_DRAW);
+                                onFirstDraw();
+                            }
+                        });
+                        return true;
+                    }
+                });
+        StartupTrace.mark(StartupTrace.PHASE_ACTIVITY_CREATED);
+    }
+
+    /*
+        The second stage of starting up: what has to happen on the main thread but can wait for
+        the first frame, then the work that makes IPC calls, handed to a background thread.
+     */
+    private void onFirstDraw() {
+        if (isFinishing()) {
+            return;
+        }
+        mGoogleApiClient = new GoogleApiClient.Builder(this)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
 
         // If Google Play Services is up to date, we'll want to register GCM. If it is not, we'll
         // skip the registration and this device will not receive any downstream messages from
         // our fake server. Because weather alerts are not a core feature of the app, this should
         // not affect the behavior of the app, from a user perspective.
-        if (checkPlayServices()) {
-            // Because this is the initial creation of the app, we'll want to be certain we have
-            // a token. If we do not, then we will start the IntentService that will register this
-            // application with GCM.
-            SharedPreferences sharedPreferences =
-                    PreferenceManager.getDefaultSharedPreferences(this);
-            boolean sentToken = sharedPreferences.getBoolean(SENT_TOKEN_TO_SERVER, false);
-            if (!sentToken) {
-                Intent intent = new Intent(this, RegistrationIntentService.class);
-                startService(intent);
+        final boolean playServicesAvailable = checkPlayServices();
+        StartupTrace.mark(StartupTrace.PHASE_DEFERRED_INIT);
+
+        final Context context = getApplicationContext();
+        sStartupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Looks up the sync account with the AccountManager, making it on first run
+                SunshineSyncAdapter.initializeSyncAdapter(context);
+
+                if (playServicesAvailable) {
+                    // Because this is the initial creation of the app, we'll want to be certain
+                    // we have a token. If we do not, then we will start the IntentService that
+                    // will register this application with GCM.
+                    SharedPreferences sharedPreferences =
+                            PreferenceManager.getDefaultSharedPreferences(context);
+                    boolean sentToken = sharedPreferences.getBoolean(SENT_TOKEN_TO_SERVER, false);
+                    if (!sentToken) {
+                        Intent intent = new Intent(context, RegistrationIntentService.class);
+                        context.startService(intent);
+                    }
+                }
+                StartupTrace.mark(StartupTrace.PHASE_BACKGROUND_INIT);
             }
-        }
+        });
     }
 
     @Override
@@ -161,13 +211,21 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             }
             mLocation = location;
 
-            mGoogleApiClient.connect();
+            if (null != mGoogleApiClient) {
+                mGoogleApiClient.connect();
+            }
         }
     }
 
     @Override
     public void onItemSelected(Uri contentUri, ForecastAdapter.ForecastAdapterViewHolder vh) {
         if (mTwoPane) {
+            DetailFragment df = (DetailFragment)getSupportFragmentManager().findFragmentByTag(DETAILFRAGMENT_TAG);
+            if ( null != df ) {
+                // The day is usually one the list has loaded, so it's shown without a query
+                df.showDay(contentUri);
+                return;
+            }
             // In two-pane mode, show the detail view in this activity by
             // adding or replacing the detail fragment using a
             // fragment transaction.
@@ -215,7 +273,9 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     @Override
     protected void onPause() {
         super.onPause();
-        mGoogleApiClient.disconnect();
+        if (null != mGoogleApiClient) {
+            mGoogleApiClient.disconnect();
+        }
     }
 
     @Override
@@ -16,8 +16,10 @@
 package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -29,7 +31,10 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+import com.example.android.sunshine.app.data.StoredLocation;
+import com.example.android.sunshine.app.data.TodayWeather;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherRepository;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
@@ -47,6 +52,10 @@ public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
     protected final static int PLACE_PICKER_REQUEST = 9090;
     private ImageView mAttribution;
+    private NearbyLocationTask mNearbyLocationTask;
+    // Set while a picked place is stored, which decides about the location status and the sync
+    // itself instead of leaving it to onSharedPreferenceChanged
+    private boolean mStoringPickedPlace;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -72,6 +81,12 @@ public class SettingsActivity extends PreferenceActivity
 
             setListFooter(mAttribution);
         }
+
+        // A place picked before a configuration change may still be looked up
+        mNearbyLocationTask = (NearbyLocationTask) getLastNonConfigurationInstance();
+        if (mNearbyLocationTask != null) {
+            mNearbyLocationTask.mActivity = this;
+        }
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -154,6 +169,9 @@ public class SettingsActivity extends PreferenceActivity
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if ( key.equals(getString(R.string.pref_location_key)) ) {
+            if (mStoringPickedPlace) {
+                return;
+            }
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SharedPreferences.Editor editor = sharedPreferences.edit();
@@ -170,17 +188,24 @@ public class SettingsActivity extends PreferenceActivity
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyPreferredLocationChanged();
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyPreferredLocationChanged();
         }
     }
 
+    // Only the weather of the preferred location is on screen, so there's no need to make
+    // everything watching other locations requery as well.
+    private void notifyPreferredLocationChanged() {
+        getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                Utility.getPreferredLocation(this)), null);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
@@ -203,42 +228,153 @@ public class SettingsActivity extends PreferenceActivity
                     address = String.format("(%.2f, %.2f)",latLong.latitude, latLong.longitude);
                 }
 
-                SharedPreferences sharedPreferences =
-                        PreferenceManager.getDefaultSharedPreferences(this);
-                SharedPreferences.Editor editor = sharedPreferences.edit();
-                editor.putString(getString(R.string.pref_location_key), address);
-
-                // Also store the latitude and longitude so that we can use these to get a precise
-                // result from our weather service. We cannot expect the weather service to
-                // understand addresses that Google formats.
-                editor.putFloat(getString(R.string.pref_location_latitude),
-                        (float) latLong.latitude);
-                editor.putFloat(getString(R.string.pref_location_longitude),
-                        (float) latLong.longitude);
-                editor.commit();
-
-                // Tell the SyncAdapter that we've changed the location, so that we can update
-                // our UI with new values. We need to do this manually because we are responding
-                // to the PlacePicker widget result here instead of allowing the
-                // LocationEditTextPreference to handle these changes and invoke our callbacks.
-                Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-                setPreferenceSummary(locationPreference, address);
-
-                // Add attributions for our new PlacePicker location.
-                if (mAttribution != null) {
-                    mAttribution.setVisibility(View.VISIBLE);
-                } else {
-                    // For pre-Honeycomb devices, we cannot add a footer, so we will use a snackbar
-                    View rootView = findViewById(android.R.id.content);
-                    Snackbar.make(rootView, getString(R.string.attribution_text),
-                            Snackbar.LENGTH_LONG).show();
+                // Looking for a stored neighbour reads the database, so it's done off the main
+                // thread and the place is stored once it's done
+                if (mNearbyLocationTask != null) {
+                    mNearbyLocationTask.cancel(false);
                 }
-
-                Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                mNearbyLocationTask = new NearbyLocationTask(this, address, latLong);
+                mNearbyLocationTask.execute();
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
     }
+
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        // A place still being looked up is handed to the activity that replaces this one
+        return mNearbyLocationTask;
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Not cancelled: the place is stored once it's looked up, whether or not there's still
+        // an activity to show it
+        if (mNearbyLocationTask != null) {
+            mNearbyLocationTask.mActivity = null;
+            mNearbyLocationTask = null;
+        }
+        super.onDestroy();
+    }
+
+    /*
+        Stores a picked place as the location, along with its latitude and longitude.  A place
+        in the neighbourhood of a location we already have weather for becomes that location,
+        coordinates included, so its forecast shows straight away and later syncs keep fetching
+        the weather of the place the location's row describes.  The activity, if there's one
+        left, shows the new location.
+     */
+    private static void storePickedPlace(Context context, SettingsActivity activity,
+                                         String address, LatLng latLong,
+                                         StoredLocation nearbyLocation,
+                                         boolean forecastIsCurrent) {
+        double latitude = latLong.latitude;
+        double longitude = latLong.longitude;
+        if (nearbyLocation != null) {
+            address = nearbyLocation.getLocationSetting();
+            latitude = nearbyLocation.getLatitude();
+            longitude = nearbyLocation.getLongitude();
+        }
+
+        SharedPreferences sharedPreferences =
+                PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putString(context.getString(R.string.pref_location_key), address);
+        if (forecastIsCurrent) {
+            // It was stored by a sync that succeeded
+            editor.putInt(context.getString(R.string.pref_location_status_key),
+                    SunshineSyncAdapter.LOCATION_STATUS_OK);
+        }
+
+        // Also store the latitude and longitude so that we can use these to get a precise
+        // result from our weather service. We cannot expect the weather service to
+        // understand addresses that Google formats.
+        editor.putFloat(context.getString(R.string.pref_location_latitude), (float) latitude);
+        editor.putFloat(context.getString(R.string.pref_location_longitude), (float) longitude);
+        // Committed on the main thread, so the listeners have all run when it returns
+        if (activity != null) {
+            activity.mStoringPickedPlace = true;
+        }
+        try {
+            editor.commit();
+        } finally {
+            if (activity != null) {
+                activity.mStoringPickedPlace = false;
+            }
+        }
+
+        if (activity != null) {
+            activity.showPickedPlace(address);
+        }
+
+        // The periodic sync refreshes a forecast that's still current
+        if (!forecastIsCurrent) {
+            Utility.resetLocationStatus(context);
+            SunshineSyncAdapter.syncImmediately(context);
+        }
+    }
+
+    private void showPickedPlace(String location) {
+        // Tell the SyncAdapter that we've changed the location, so that we can update
+        // our UI with new values. We need to do this manually because we are responding
+        // to the PlacePicker widget result here instead of allowing the
+        // LocationEditTextPreference to handle these changes and invoke our callbacks.
+        Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+        setPreferenceSummary(locationPreference, location);
+
+        // Add attributions for our new PlacePicker location.
+        if (mAttribution != null) {
+            mAttribution.setVisibility(View.VISIBLE);
+        } else {
+            // For pre-Honeycomb devices, we cannot add a footer, so we will use a snackbar
+            View rootView = findViewById(android.R.id.content);
+            Snackbar.make(rootView, getString(R.string.attribution_text),
+                    Snackbar.LENGTH_LONG).show();
+        }
+    }
+
+    /*
+        Looks for a stored neighbour of a picked place, then stores the place.  Outlives the
+        activity that started it, and is handed on across configuration changes, so a place
+        picked just before a rotation or leaving the settings is never lost.
+     */
+    private static class NearbyLocationTask extends AsyncTask<Void, Void, StoredLocation> {
+        private final Context mContext;
+        private final String mAddress;
+        private final LatLng mLatLong;
+        // Only read once the task is done
+        private boolean mForecastIsCurrent;
+        // The activity showing the settings, if any.  Only used on the main thread.
+        SettingsActivity mActivity;
+
+        NearbyLocationTask(SettingsActivity activity, String address, LatLng latLong) {
+            mContext = activity.getApplicationContext();
+            mActivity = activity;
+            mAddress = address;
+            mLatLong = latLong;
+        }
+
+        @Override
+        protected StoredLocation doInBackground(Void... params) {
+            WeatherRepository repository = WeatherRepository.getInstance(mContext);
+            StoredLocation nearbyLocation = repository.findNearbyLocation(mLatLong.latitude,
+                    mLatLong.longitude, WeatherRepository.NEARBY_RADIUS_KM);
+            if (nearbyLocation != null) {
+                TodayWeather today = repository.getToday(nearbyLocation.getLocationSetting());
+                mForecastIsCurrent = today != null && today.isToday();
+            }
+            return nearbyLocation;
+        }
+
+        @Override
+        protected void onPostExecute(StoredLocation nearbyLocation) {
+            SettingsActivity activity = mActivity;
+            if (activity != null) {
+                activity.mNearbyLocationTask = null;
+            }
+            storePickedPlace(mContext, activity, mAddress, mLatLong, nearbyLocation,
+                    mForecastIsCurrent);
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * When each phase of starting the app was reached, logged under the StartupTrace tag, e.g.
+ * {@code adb logcat -s StartupTrace}.
+ *
+ * Each phase is recorded the first time it's reached in a process, so a cold start logs every
+ * phase once and later activities log nothing.  Times count from the process's start on Nougat
+ * and up, where the platform knows it, and from {@link #PHASE_ACTIVITY_CREATE} before that.
+ */
+final class StartupTrace {
+
+    private static final String LOG_TAG = StartupTrace.class.getSimpleName();
+
+    static final int PHASE_ACTIVITY_CREATE = 0;
+    static final int PHASE_ACTIVITY_CREATED = 1;
+    static final int PHASE_FIRST_DRAW = 2;
+    static final int PHASE_DEFERRED_INIT = 3;
+    static final int PHASE_BACKGROUND_INIT = 4;
+    static final int PHASE_FIRST_FORECAST_ROW = 5;
+    private static final String[] PHASE_NAMES = {"activity_create", "activity_created",
+            "first_draw", "deferred_init", "background_init", "first_forecast_row"};
+
+    // Uptime each phase was reached at, 0 until then
+    private static final long[] sPhaseMillis = new long[PHASE_NAMES.length];
+    private static long sStartMillis;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Records that a phase has been reached, if it hasn't been before.  Safe on any thread.
+     */
+    static synchronized void mark(int phase) {
+        if (sPhaseMillis[phase] != 0) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (sStartMillis == 0) {
+            sStartMillis = getProcessStartMillis(now);
+        }
+        sPhaseMillis[phase] = now;
+        Log.i(LOG_TAG, PHASE_NAMES[phase] + ": " + (now - sStartMillis) + " ms");
+    }
+
+    private static long getProcessStartMillis(long now) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return getProcessStartMillisN();
+        }
+        return now;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private static long getProcessStartMillisN() {
+        return Process.getStartUptimeMillis();
+    }
+}
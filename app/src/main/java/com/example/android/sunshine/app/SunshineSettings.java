@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.condition.WeatherCondition;
+
+import java.util.Locale;
+
+/**
+ * The settings {@link Utility} hands out, read from the default shared preferences into one
+ * immutable snapshot.
+ *
+ * Reading a setting is a field read, so it's cheap enough for every list row, widget row and
+ * sync.  The snapshot is rebuilt whenever a preference changes.  Preferences written off the
+ * main thread only reach the listener once the main thread gets to it, so code that writes one
+ * there and reads it back should call {@link #refresh(Context)} in between.
+ */
+public final class SunshineSettings {
+
+    private static volatile SunshineSettings sCurrent;
+    private static Context sAppContext;
+
+    // Preferences only hold their listeners weakly
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    rebuild(prefs);
+                }
+            };
+
+    private final String mPreferredLocation;
+    private final boolean mMetric;
+    private final boolean mLocationLatLonAvailable;
+    private final float mLocationLatitude;
+    private final float mLocationLongitude;
+    private final int mLocationStatus;
+    private final boolean mUsingLocalGraphics;
+    private final String mArtUrlFormat;
+    // The art pack's url of each kind of art, made the first time it's asked for.  Two threads
+    // making the same one make equal strings, so there's nothing to lock.
+    private final String[] mArtUrls = new String[WeatherCondition.ART_COUNT];
+
+    private SunshineSettings(Context context, SharedPreferences prefs) {
+        mPreferredLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        mLocationLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        mLocationLatitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        mLocationLongitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        mLocationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtUrlFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        mUsingLocalGraphics = mArtUrlFormat.equals(sunshineArtPack);
+    }
+
+    /**
+     * The current settings.  The first call reads them and starts listening for changes.
+     */
+    public static SunshineSettings get(Context context) {
+        SunshineSettings settings = sCurrent;
+        if (settings == null) {
+            synchronized (SunshineSettings.class) {
+                if (sCurrent == null) {
+                    sAppContext = context.getApplicationContext();
+                    SharedPreferences prefs =
+                            PreferenceManager.getDefaultSharedPreferences(sAppContext);
+                    prefs.registerOnSharedPreferenceChangeListener(sListener);
+                    sCurrent = new SunshineSettings(sAppContext, prefs);
+                }
+                settings = sCurrent;
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Rereads the settings now, for a thread that has just written a preference.
+     */
+    public static void refresh(Context context) {
+        if (sCurrent == null) {
+            get(context);
+        } else {
+            rebuild(PreferenceManager.getDefaultSharedPreferences(sAppContext));
+        }
+    }
+
+    // Locked so a snapshot read earlier can't replace one read later
+    private static synchronized void rebuild(SharedPreferences prefs) {
+        sCurrent = new SunshineSettings(sAppContext, prefs);
+    }
+
+    public String getPreferredLocation() {
+        return mPreferredLocation;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    public boolean isLocationLatLonAvailable() {
+        return mLocationLatLonAvailable;
+    }
+
+    public float getLocationLatitude() {
+        return mLocationLatitude;
+    }
+
+    public float getLocationLongitude() {
+        return mLocationLongitude;
+    }
+
+    @SuppressWarnings("ResourceType")
+    @SunshineSyncAdapter.LocationStatus
+    public int getLocationStatus() {
+        return mLocationStatus;
+    }
+
+    public boolean isUsingLocalGraphics() {
+        return mUsingLocalGraphics;
+    }
+
+    /**
+     * The art pack's url with a %s for the name of the art, or the local pack's marker.
+     */
+    public String getArtUrlFormat() {
+        return mArtUrlFormat;
+    }
+
+    /**
+     * The art pack's url for one of {@link WeatherCondition}'s kinds of art.
+     */
+    public String getArtUrl(int art) {
+        String artUrl = mArtUrls[art];
+        if (artUrl == null) {
+            artUrl = String.format(Locale.US, mArtUrlFormat, WeatherCondition.getArtName(art));
+            mArtUrls[art] = artUrl;
+        }
+        return artUrl;
+    }
+}
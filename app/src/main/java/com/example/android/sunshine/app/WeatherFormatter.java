@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.data.SunshineCalendar;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The day labels, temperatures and winds {@link Utility} formats, remembered once made.
+ *
+ * A formatter is good for one locale, one time zone and one day: the date formats and strings
+ * are set up for them, and each day's labels are made once and handed out from then on.  So is
+ * every temperature and wind speed, once rounded the way the format rounds it, per unit.
+ * {@link #get(Context)} starts over with a new formatter whenever the locale, the time zone or
+ * the day has changed.  The caches are plain arrays of immutable strings: two threads filling
+ * in the same slot both make the same string, so there's nothing to lock.
+ */
+final class WeatherFormatter {
+
+    // Day labels are kept from a week back to eight weeks ahead
+    private static final int FIRST_CACHED_DAY = -7;
+    private static final int CACHED_DAYS = 64;
+
+    // Temperatures and wind speeds outside these ranges are formatted every time
+    private static final int MIN_CACHED_TEMPERATURE = -150;
+    private static final int MAX_CACHED_TEMPERATURE = 150;
+    private static final int CACHED_WIND_SPEEDS = 200;
+
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW",
+            "Unknown"};
+    private static final int UNKNOWN_DIRECTION = DIRECTIONS.length - 1;
+
+    private static final int METRIC = 0;
+    private static final int IMPERIAL = 1;
+
+    private static volatile WeatherFormatter sCurrent;
+
+    private final Locale mLocale;
+    private final TimeZone mTimeZone;
+    private final int mTodayJulianDay;
+    private final long mTodayStart;
+    private final long mTomorrowStart;
+
+    private final String mToday;
+    private final String mTomorrow;
+    private final String mFullFriendlyDateFormat;
+    private final String mTemperatureFormat;
+    private final String[] mWindFormats;
+
+    // Only used on a cache miss, and not thread-safe, so each is locked while it's used
+    private final SimpleDateFormat mDayNameFormat;
+    private final SimpleDateFormat mMonthDayFormat;
+    private final SimpleDateFormat mShortDateFormat;
+
+    // Indexed by day - today - FIRST_CACHED_DAY
+    private final String[] mDayNames = new String[CACHED_DAYS];
+    private final String[] mMonthDays = new String[CACHED_DAYS];
+    private final String[] mShortDates = new String[CACHED_DAYS];
+    private final String[] mFullFriendlyDays = new String[CACHED_DAYS];
+    private String mLongToday;
+
+    // Indexed by unit, then by degrees - MIN_CACHED_TEMPERATURE + 1.  Slot 0 is "-0".
+    private final String[][] mTemperatures =
+            new String[2][MAX_CACHED_TEMPERATURE - MIN_CACHED_TEMPERATURE + 2];
+    // Indexed by unit, direction and speed
+    private final String[][][] mWinds = new String[2][DIRECTIONS.length][CACHED_WIND_SPEEDS];
+
+    private WeatherFormatter(Context context, Locale locale, TimeZone timeZone, long now) {
+        mLocale = locale;
+        mTimeZone = timeZone;
+        mTodayJulianDay = SunshineCalendar.getJulianDay(now);
+        mTodayStart = SunshineCalendar.getDayStart(mTodayJulianDay);
+        mTomorrowStart = SunshineCalendar.getDayStart(mTodayJulianDay + 1);
+
+        mToday = context.getString(R.string.today);
+        mTomorrow = context.getString(R.string.tomorrow);
+        mFullFriendlyDateFormat = context.getString(R.string.format_full_friendly_date);
+        mTemperatureFormat = context.getString(R.string.format_temperature);
+        mWindFormats = new String[2];
+        mWindFormats[METRIC] = context.getString(R.string.format_wind_kmh);
+        mWindFormats[IMPERIAL] = context.getString(R.string.format_wind_mph);
+
+        mDayNameFormat = newDateFormat("EEEE", locale, timeZone);
+        mMonthDayFormat = newDateFormat("MMMM dd", locale, timeZone);
+        mShortDateFormat = newDateFormat("EEE MMM dd", locale, timeZone);
+    }
+
+    private static SimpleDateFormat newDateFormat(String pattern, Locale locale,
+                                                  TimeZone timeZone) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, locale);
+        format.setTimeZone(timeZone);
+        return format;
+    }
+
+    /**
+     * The formatter for the current locale, time zone and day.
+     */
+    static WeatherFormatter get(Context context) {
+        Locale locale = Locale.getDefault();
+        TimeZone timeZone = SunshineCalendar.getTimeZone();
+        long now = System.currentTimeMillis();
+        WeatherFormatter formatter = sCurrent;
+        if (formatter == null || !formatter.isCurrent(locale, timeZone, now)) {
+            formatter = new WeatherFormatter(context, locale, timeZone, now);
+            sCurrent = formatter;
+        }
+        return formatter;
+    }
+
+    private boolean isCurrent(Locale locale, TimeZone timeZone, long now) {
+        return mTimeZone == timeZone && now >= mTodayStart && now < mTomorrowStart
+                && mLocale.equals(locale);
+    }
+
+    /**
+     * See {@link Utility#getFriendlyDayString(Context, long, boolean)}.
+     */
+    String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        int julianDay = SunshineCalendar.getJulianDay(dateInMillis);
+        if (displayLongToday && julianDay == mTodayJulianDay) {
+            String longToday = mLongToday;
+            if (longToday == null) {
+                longToday = String.format(mFullFriendlyDateFormat, mToday,
+                        getFormattedMonthDay(dateInMillis));
+                mLongToday = longToday;
+            }
+            return longToday;
+        } else if (julianDay < mTodayJulianDay + 7) {
+            return getDayName(dateInMillis);
+        }
+        int index = getCacheIndex(julianDay);
+        String shortDate = index >= 0 ? mShortDates[index] : null;
+        if (shortDate == null) {
+            shortDate = format(mShortDateFormat, dateInMillis);
+            if (index >= 0) {
+                mShortDates[index] = shortDate;
+            }
+        }
+        return shortDate;
+    }
+
+    /**
+     * See {@link Utility#getFullFriendlyDayString(Context, long)}.
+     */
+    String getFullFriendlyDayString(long dateInMillis) {
+        int index = getCacheIndex(SunshineCalendar.getJulianDay(dateInMillis));
+        String day = index >= 0 ? mFullFriendlyDays[index] : null;
+        if (day == null) {
+            day = String.format(mFullFriendlyDateFormat, getDayName(dateInMillis),
+                    getFormattedMonthDay(dateInMillis));
+            if (index >= 0) {
+                mFullFriendlyDays[index] = day;
+            }
+        }
+        return day;
+    }
+
+    /**
+     * See {@link Utility#getDayName(Context, long)}.
+     */
+    String getDayName(long dateInMillis) {
+        int julianDay = SunshineCalendar.getJulianDay(dateInMillis);
+        if (julianDay == mTodayJulianDay) {
+            return mToday;
+        } else if (julianDay == mTodayJulianDay + 1) {
+            return mTomorrow;
+        }
+        int index = getCacheIndex(julianDay);
+        String dayName = index >= 0 ? mDayNames[index] : null;
+        if (dayName == null) {
+            dayName = format(mDayNameFormat, dateInMillis);
+            if (index >= 0) {
+                mDayNames[index] = dayName;
+            }
+        }
+        return dayName;
+    }
+
+    /**
+     * See {@link Utility#getFormattedMonthDay(Context, long)}.
+     */
+    String getFormattedMonthDay(long dateInMillis) {
+        int index = getCacheIndex(SunshineCalendar.getJulianDay(dateInMillis));
+        String monthDay = index >= 0 ? mMonthDays[index] : null;
+        if (monthDay == null) {
+            monthDay = format(mMonthDayFormat, dateInMillis);
+            if (index >= 0) {
+                mMonthDays[index] = monthDay;
+            }
+        }
+        return monthDay;
+    }
+
+    private int getCacheIndex(int julianDay) {
+        int index = julianDay - mTodayJulianDay - FIRST_CACHED_DAY;
+        return index >= 0 && index < CACHED_DAYS ? index : -1;
+    }
+
+    private static String format(SimpleDateFormat format, long dateInMillis) {
+        synchronized (format) {
+            return format.format(new Date(dateInMillis));
+        }
+    }
+
+    /**
+     * See {@link Utility#formatTemperature(Context, double)}.
+     */
+    String formatTemperature(double temperature, boolean metric) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        double rounded = roundHalfUp(temperature);
+        if (!(rounded >= MIN_CACHED_TEMPERATURE && rounded <= MAX_CACHED_TEMPERATURE)) {
+            return String.format(mTemperatureFormat, temperature);
+        }
+        // Small negative temperatures round to -0, which the format shows as such
+        int index = rounded == 0 && Math.copySign(1, rounded) < 0
+                ? 0 : (int) rounded - MIN_CACHED_TEMPERATURE + 1;
+        String[] temperatures = mTemperatures[metric ? METRIC : IMPERIAL];
+        String formatted = temperatures[index];
+        if (formatted == null) {
+            // The rounded value comes out exactly as the value itself would
+            formatted = String.format(mTemperatureFormat, rounded);
+            temperatures[index] = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * See {@link Utility#getFormattedWind(Context, float, float)}.
+     */
+    String getFormattedWind(float windSpeed, float degrees, boolean metric) {
+        int unit = metric ? METRIC : IMPERIAL;
+        if (!metric) {
+            windSpeed = .621371192237334f * windSpeed;
+        }
+        int direction = getDirection(degrees);
+        double rounded = roundHalfUp(windSpeed);
+        // Past the cache, NaN, or negative, which includes -0
+        if (!(rounded < CACHED_WIND_SPEEDS && Math.copySign(1, rounded) > 0)) {
+            return String.format(mWindFormats[unit], windSpeed, DIRECTIONS[direction]);
+        }
+        String[] winds = mWinds[unit][direction];
+        String formatted = winds[(int) rounded];
+        if (formatted == null) {
+            formatted = String.format(mWindFormats[unit], (float) rounded, DIRECTIONS[direction]);
+            winds[(int) rounded] = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * Rounds to a whole number the way a %.0f format does: half away from zero, keeping the
+     * sign of values that round to zero.
+     */
+    static double roundHalfUp(double value) {
+        double magnitude = Math.abs(value);
+        double rounded = Math.floor(magnitude + 0.5);
+        // Adding a half can itself round up, e.g. for 2.4999999999999996
+        if (rounded - magnitude > 0.5) {
+            rounded--;
+        }
+        return Math.copySign(rounded, value);
+    }
+
+    // From wind direction in degrees, determine compass direction as an index into DIRECTIONS
+    private static int getDirection(float degrees) {
+        if (degrees >= 337.5 || degrees < 22.5) {
+            return 0;
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            return 1;
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            return 2;
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            return 3;
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            return 4;
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            return 5;
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            return 6;
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            return 7;
+        }
+        return UNKNOWN_DIRECTION;
+    }
+}
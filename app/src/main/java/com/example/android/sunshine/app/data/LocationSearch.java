@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.Locale;
+
+/**
+ * A full-text index over the setting and city name of every stored location, for finding them
+ * by the first letters of their words as they're typed.
+ *
+ * The index is an FTS3 table, which every version of the framework's SQLite has, keyed by the
+ * location's _id and kept in step with the location table by triggers.
+ */
+final class LocationSearch {
+
+    static final String TABLE_NAME = "location_search";
+
+    // The search selects these in the same order
+    static final String[] COLUMNS = StoredLocation.COLUMNS;
+
+    // The matches, with a location whose whole setting is the text first
+    private static final String SQL_SEARCH = "SELECT " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LONG +
+            " FROM " + TABLE_NAME + " JOIN " + LocationEntry.TABLE_NAME + " ON " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " = " + TABLE_NAME + ".docid" +
+            " WHERE " + TABLE_NAME + " MATCH ?" +
+            " ORDER BY " + LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING +
+            " = ? COLLATE NOCASE DESC, " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_CITY_NAME +
+            " LIMIT ?";
+
+    private LocationSearch() {
+    }
+
+    static String createTable() {
+        return "CREATE VIRTUAL TABLE " + TABLE_NAME + " USING fts3(" +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME + ");";
+    }
+
+    static void createTriggers(SQLiteDatabase db) {
+        final String deleteRow = "DELETE FROM " + TABLE_NAME +
+                " WHERE docid = OLD." + LocationEntry._ID + "; ";
+        final String insertRow = "INSERT INTO " + TABLE_NAME + " (docid, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                ") VALUES (NEW." + LocationEntry._ID + ", NEW." +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", NEW." +
+                LocationEntry.COLUMN_CITY_NAME + "); ";
+
+        db.execSQL("CREATE TRIGGER location_insert_search AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + insertRow + "END;");
+        db.execSQL("CREATE TRIGGER location_update_search AFTER UPDATE OF " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN " + deleteRow + insertRow + "END;");
+        db.execSQL("CREATE TRIGGER location_delete_search AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + deleteRow + "END;");
+    }
+
+    /**
+     * Turns typed text into a query matching the locations with a word starting with each of
+     * its words, e.g. "new yo" into "new* yo*".  Anything but letters and digits only separates
+     * words, so nothing typed is taken for query syntax.  Returns null if there are no words.
+     */
+    static String toMatchQuery(String text) {
+        StringBuilder query = new StringBuilder(text.length() + 8);
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(c);
+                inWord = true;
+            } else if (inWord) {
+                query.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            query.append('*');
+        }
+        // Lower case, so that words like OR and NEAR aren't read as operators
+        return query.length() > 0 ? query.toString().toLowerCase(Locale.US) : null;
+    }
+
+    /**
+     * Returns a cursor over {@link #COLUMNS} with the stored locations matching the typed text.
+     * Text without any words matches nothing.
+     */
+    static Cursor query(SQLiteDatabase db, String text, int limit) {
+        String matchQuery = toMatchQuery(text);
+        if (matchQuery == null) {
+            return new MatrixCursor(COLUMNS, 0);
+        }
+        return db.rawQuery(SQL_SEARCH,
+                new String[]{matchQuery, text.trim(), Integer.toString(limit)});
+    }
+}
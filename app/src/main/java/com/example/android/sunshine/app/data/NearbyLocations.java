@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the stored locations near a point.
+ *
+ * The framework's SQLite isn't built with the R-tree module, so the search is done the way an
+ * R-tree would do its first step: the circle is widened to a latitude/longitude box, which is
+ * one range of the location table's coordinate index, and only the few rows in the box get
+ * their great-circle distance worked out.
+ */
+final class NearbyLocations {
+
+    static final String INDEX_NAME = "location_coord";
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    static final String[] COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_DISTANCE
+    };
+    private static final int INDEX_LAT = 3;
+    private static final int INDEX_LONG = 4;
+
+    private NearbyLocations() {
+    }
+
+    static String createIndex() {
+        return "CREATE INDEX " + INDEX_NAME + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG + ");";
+    }
+
+    /**
+     * Returns a cursor over {@link #COLUMNS} with the locations within the radius of the point,
+     * nearest first.
+     *
+     * @param limit the most locations to return, or 0 for all of them
+     */
+    static Cursor query(SQLiteDatabase db, double latitude, double longitude, double radiusKm,
+                        int limit) {
+        double latitudeDelta = radiusKm / KM_PER_DEGREE;
+        StringBuilder selection = new StringBuilder(LocationEntry.COLUMN_COORD_LAT +
+                " BETWEEN ? AND ?");
+        List<String> selectionArgs = new ArrayList<String>(4);
+        selectionArgs.add(Double.toString(latitude - latitudeDelta));
+        selectionArgs.add(Double.toString(latitude + latitudeDelta));
+
+        // Near a pole every longitude is in range, elsewhere degrees of longitude shrink with
+        // the cosine of the latitude.  Boxes crossing the antimeridian wrap around.
+        double maxLatitude = Math.abs(latitude) + latitudeDelta;
+        double longitudeDelta = maxLatitude < 90
+                ? latitudeDelta / Math.cos(Math.toRadians(maxLatitude)) : 180;
+        if (longitudeDelta < 180) {
+            double west = longitude - longitudeDelta;
+            double east = longitude + longitudeDelta;
+            if (west < -180) {
+                selection.append(" AND (" + LocationEntry.COLUMN_COORD_LONG + " >= ? OR " +
+                        LocationEntry.COLUMN_COORD_LONG + " <= ?)");
+                selectionArgs.add(Double.toString(west + 360));
+                selectionArgs.add(Double.toString(east));
+            } else if (east > 180) {
+                selection.append(" AND (" + LocationEntry.COLUMN_COORD_LONG + " >= ? OR " +
+                        LocationEntry.COLUMN_COORD_LONG + " <= ?)");
+                selectionArgs.add(Double.toString(west));
+                selectionArgs.add(Double.toString(east - 360));
+            } else {
+                selection.append(" AND " + LocationEntry.COLUMN_COORD_LONG + " BETWEEN ? AND ?");
+                selectionArgs.add(Double.toString(west));
+                selectionArgs.add(Double.toString(east));
+            }
+        }
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING,
+                        LocationEntry.COLUMN_CITY_NAME, LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG},
+                selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                double distance = getDistanceKm(latitude, longitude,
+                        cursor.getDouble(INDEX_LAT), cursor.getDouble(INDEX_LONG));
+                if (distance <= radiusKm) {
+                    rows.add(new Object[]{cursor.getLong(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getDouble(INDEX_LAT),
+                            cursor.getDouble(INDEX_LONG), distance});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Collections.sort(rows, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                return Double.compare((Double) lhs[COLUMNS.length - 1],
+                        (Double) rhs[COLUMNS.length - 1]);
+            }
+        });
+        int count = limit > 0 ? Math.min(limit, rows.size()) : rows.size();
+        MatrixCursor result = new MatrixCursor(COLUMNS, count);
+        for (int i = 0; i < count; i++) {
+            result.addRow(rows.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * The great-circle distance between two points, by the haversine formula.
+     */
+    static double getDistanceKm(double lat1, double long1, double lat2, double long2) {
+        double sinHalfLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinHalfLong = Math.sin(Math.toRadians(long2 - long1) / 2);
+        double a = sinHalfLat * sinHalfLat + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2)) * sinHalfLong * sinHalfLong;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+/**
+ * A location the weather database has a row for, as {@link WeatherRepository} hands it out.
+ */
+public final class StoredLocation {
+
+    // Columns read from the location table, in the order of the indices below
+    static final String[] COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+    private static final int INDEX_CITY_NAME = 2;
+    private static final int INDEX_COORD_LAT = 3;
+    private static final int INDEX_COORD_LONG = 4;
+
+    private final long mId;
+    private final String mLocationSetting;
+    private final String mCityName;
+    private final double mLatitude;
+    private final double mLongitude;
+
+    private StoredLocation(Cursor cursor) {
+        mId = cursor.getLong(INDEX_ID);
+        mLocationSetting = cursor.getString(INDEX_LOCATION_SETTING);
+        mCityName = cursor.getString(INDEX_CITY_NAME);
+        mLatitude = cursor.getDouble(INDEX_COORD_LAT);
+        mLongitude = cursor.getDouble(INDEX_COORD_LONG);
+    }
+
+    /**
+     * Reads the current row of a cursor over {@link #COLUMNS}.
+     */
+    static StoredLocation fromCursor(Cursor cursor) {
+        return new StoredLocation(cursor);
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * What the location preference holds for this location.
+     */
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * The city the weather service resolved the setting to.
+     */
+    public String getCityName() {
+        return mCityName;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    @Override
+    public String toString() {
+        return mLocationSetting.equalsIgnoreCase(mCityName)
+                ? mLocationSetting : mCityName + " (" + mLocationSetting + ")";
+    }
+}
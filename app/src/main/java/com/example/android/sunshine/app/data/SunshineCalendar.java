@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic for the dates Sunshine stores, without allocating.
+ *
+ * Weather is stored against the start of its day, as a millisecond timestamp.  The day is a
+ * Julian day number counted in the device's time zone, so a stored date is local midnight, the
+ * same value {@link android.text.format.Time#setJulianDay(int)} produces.  Unlike
+ * {@link android.text.format.Time}, nothing here creates objects per call: the time zone is
+ * looked up once and cached until the device's zone changes, and the offsets themselves come
+ * straight from the cached zone, which is immutable and safe to share between threads.
+ */
+public final class SunshineCalendar {
+
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** The Julian day of the epoch, 1970-01-01. */
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    // TimeZone.getDefault() hands out a fresh copy every time, so keep one around.  Cleared by
+    // TimeZoneReceiver when the user changes zones.
+    private static volatile TimeZone sTimeZone;
+
+    private SunshineCalendar() {
+    }
+
+    /**
+     * Returns the device's time zone, as of the last zone change this process heard of.  The
+     * same instance is returned until then.
+     */
+    public static TimeZone getTimeZone() {
+        TimeZone timeZone = sTimeZone;
+        if (timeZone == null) {
+            timeZone = TimeZone.getDefault();
+            sTimeZone = timeZone;
+        }
+        return timeZone;
+    }
+
+    /**
+     * Drops the cached time zone, so the next call picks up the device's current one.
+     */
+    public static void resetTimeZone() {
+        sTimeZone = null;
+    }
+
+    /**
+     * Returns the offset from UTC of the device's time zone at the given instant.
+     */
+    public static int getOffset(long millis) {
+        return getTimeZone().getOffset(millis);
+    }
+
+    /**
+     * Returns the local Julian day the given instant falls on.
+     */
+    public static int getJulianDay(long millis) {
+        return getJulianDay(millis, getOffset(millis));
+    }
+
+    /**
+     * Returns the Julian day the given instant falls on at the given offset from UTC.  This is
+     * {@link android.text.format.Time#getJulianDay(long, long)}, with the offset in millis.
+     */
+    public static int getJulianDay(long millis, int offsetMillis) {
+        return (int) ((millis + offsetMillis) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * Returns local midnight at the start of the given Julian day.
+     */
+    public static long getDayStart(int julianDay) {
+        long utcMidnight = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset to use is the one in effect at local midnight, which we don't know yet.
+        // The one at UTC midnight is right unless a transition lies in between, in which case
+        // one more step settles it.
+        long dayStart = utcMidnight - getOffset(utcMidnight);
+        return utcMidnight - getOffset(dayStart);
+    }
+
+    /**
+     * Returns local midnight at the start of the day the given instant falls on.  This is the
+     * form every date in the weather table is stored in.
+     */
+    public static long normalizeDate(long millis) {
+        return getDayStart(getJulianDay(millis));
+    }
+
+    /**
+     * Returns today's local Julian day.
+     */
+    public static int getTodayJulianDay() {
+        return getJulianDay(System.currentTimeMillis());
+    }
+
+    /**
+     * Keeps the cached time zone in step with the device's.
+     */
+    public static class TimeZoneReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            resetTimeZone();
+        }
+    }
+}
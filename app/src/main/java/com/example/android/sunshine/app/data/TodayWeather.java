@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+
+/**
+ * The one row of weather the widgets, Muzei, the daily notification and the wearable show: the
+ * first forecast day of a location from today on.
+ *
+ * Use {@link #query(Context, String)} to read it.  It's kept in memory until the location's
+ * weather changes.  Outside our process, the {@link WeatherProvider} hands it out from a
+ * provider method as a small Bundle rather than a cursor, so there's no cursor window to fill
+ * and ship.
+ */
+public final class TodayWeather {
+
+    /** The provider method that returns a location's {@link TodayWeather}. */
+    static final String METHOD_GET_TODAY = "get_today";
+
+    private static final String KEY_DATE = "date";
+    private static final String KEY_WEATHER_ID = "weather_id";
+    private static final String KEY_DESCRIPTION = "short_desc";
+    private static final String KEY_MAX_TEMP = "max";
+    private static final String KEY_MIN_TEMP = "min";
+
+    // Columns read from the current forecast, in the order of the indices below
+    static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    private final long mDate;
+    private final int mWeatherId;
+    private final String mDescription;
+    private final double mMaxTemp;
+    private final double mMinTemp;
+
+    private TodayWeather(long date, int weatherId, String description, double maxTemp,
+                         double minTemp) {
+        mDate = date;
+        mWeatherId = weatherId;
+        mDescription = description;
+        mMaxTemp = maxTemp;
+        mMinTemp = minTemp;
+    }
+
+    /**
+     * Returns the first forecast day of the given location from today on, or null if there is
+     * none.  Reads from the database on a miss, so don't call it on the main thread.
+     */
+    public static TodayWeather query(Context context, String locationSetting) {
+        return WeatherRepository.getInstance(context).getToday(locationSetting);
+    }
+
+    /**
+     * Reads the first row of a cursor over {@link #COLUMNS}, or returns null if it's empty.
+     */
+    static TodayWeather fromCursor(Cursor cursor) {
+        if (!cursor.moveToFirst()) {
+            return null;
+        }
+        return new TodayWeather(cursor.getLong(INDEX_DATE), cursor.getInt(INDEX_WEATHER_ID),
+                cursor.getString(INDEX_SHORT_DESC), cursor.getDouble(INDEX_MAX_TEMP),
+                cursor.getDouble(INDEX_MIN_TEMP));
+    }
+
+    /**
+     * The normalized date of the forecast day.
+     */
+    public long getDate() {
+        return mDate;
+    }
+
+    /**
+     * Whether this is the forecast for today, rather than for a later day.
+     */
+    public boolean isToday() {
+        return mDate == SunshineCalendar.getDayStart(SunshineCalendar.getTodayJulianDay());
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public double getMaxTemp() {
+        return mMaxTemp;
+    }
+
+    public double getMinTemp() {
+        return mMinTemp;
+    }
+
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_DATE, mDate);
+        bundle.putInt(KEY_WEATHER_ID, mWeatherId);
+        bundle.putString(KEY_DESCRIPTION, mDescription);
+        bundle.putDouble(KEY_MAX_TEMP, mMaxTemp);
+        bundle.putDouble(KEY_MIN_TEMP, mMinTemp);
+        return bundle;
+    }
+
+    static TodayWeather fromBundle(Bundle bundle) {
+        return new TodayWeather(bundle.getLong(KEY_DATE), bundle.getInt(KEY_WEATHER_ID),
+                bundle.getString(KEY_DESCRIPTION), bundle.getDouble(KEY_MAX_TEMP),
+                bundle.getDouble(KEY_MIN_TEMP));
+    }
+
+    @Override
+    public String toString() {
+        return mDescription + " on " + mDate + ", " + mMaxTemp + "/" + mMinTemp;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects what a write to the {@link WeatherProvider} touched, so that it can be turned into
+ * the narrowest set of change notifications once the write is committed.
+ *
+ * Weather changes are tracked per location setting as the range of dates that changed.  A single
+ * changed day is reported on that day's uri, anything wider on the location's uri.  Observers of
+ * a location's uri are also told about changes to any of its days, so every observer still sees
+ * each change exactly once, while observers of other locations are left alone.  The location's
+ * summaries are notified alongside its weather.
+ */
+class WeatherChangeSet {
+
+    private final Map<String, long[]> mWeatherRanges = new HashMap<String, long[]>();
+    // Location row ids already resolved to their settings, so a batch looks each one up once.
+    private final Map<Long, String> mLocationSettings = new HashMap<Long, String>();
+    private boolean mAllWeatherChanged;
+    private boolean mLocationsChanged;
+
+    /**
+     * Records a change to the weather between the two dates, inclusive, for the given location.
+     */
+    void addWeather(String locationSetting, long minDate, long maxDate) {
+        long[] range = mWeatherRanges.get(locationSetting);
+        if (range == null) {
+            mWeatherRanges.put(locationSetting, new long[]{minDate, maxDate});
+        } else {
+            range[0] = Math.min(range[0], minDate);
+            range[1] = Math.max(range[1], maxDate);
+        }
+    }
+
+    /**
+     * Records a change to the weather for every date of the given location.
+     */
+    void addWeather(String locationSetting) {
+        addWeather(locationSetting, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Records a change we can't attribute to particular locations.
+     */
+    void addAllWeather() {
+        mAllWeatherChanged = true;
+    }
+
+    void addLocations() {
+        mLocationsChanged = true;
+    }
+
+    String getLocationSetting(long locationId) {
+        return mLocationSettings.get(locationId);
+    }
+
+    void putLocationSetting(long locationId, String locationSetting) {
+        mLocationSettings.put(locationId, locationSetting);
+    }
+
+    boolean isEmpty() {
+        return !mAllWeatherChanged && !mLocationsChanged && mWeatherRanges.isEmpty();
+    }
+
+    /**
+     * Drops whatever the cache holds for the changed locations.
+     */
+    void invalidate(WeatherQueryCache cache) {
+        if (mAllWeatherChanged) {
+            cache.invalidateAll();
+            return;
+        }
+        for (String locationSetting : mWeatherRanges.keySet()) {
+            cache.invalidateLocation(locationSetting);
+        }
+    }
+
+    /**
+     * Tells the listener about each location whose weather changed, and about the locations.
+     */
+    void dispatchTo(WeatherRepository.OnChangeListener listener) {
+        if (mAllWeatherChanged) {
+            listener.onWeatherChanged(null);
+        } else {
+            for (String locationSetting : mWeatherRanges.keySet()) {
+                listener.onWeatherChanged(locationSetting);
+            }
+        }
+        if (mLocationsChanged) {
+            listener.onLocationsChanged();
+        }
+    }
+
+    /**
+     * The uris to notify for this change set, with no observer covered twice.
+     */
+    List<Uri> getNotificationUris() {
+        List<Uri> uris = new ArrayList<Uri>(2 * mWeatherRanges.size() + 2);
+        if (mAllWeatherChanged) {
+            uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+            uris.add(WeatherContract.SummaryEntry.CONTENT_URI);
+        } else {
+            for (Map.Entry<String, long[]> entry : mWeatherRanges.entrySet()) {
+                long[] range = entry.getValue();
+                if (range[0] == range[1]) {
+                    uris.add(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                            entry.getKey(), range[0]));
+                } else {
+                    uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(entry.getKey()));
+                }
+                // Any day can move its week's and month's summaries
+                uris.add(WeatherContract.SummaryEntry.buildSummaryLocation(entry.getKey()));
+            }
+        }
+        if (mLocationsChanged) {
+            uris.add(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compact storage behind the weather table.
+ *
+ * Weather rows live in {@link #TABLE_DATA}, clustered on location and date, with every
+ * measurement stored as a fixed point integer and the description replaced by the id of its
+ * entry in {@link #TABLE_DESCRIPTIONS}.  The {@link WeatherEntry#TABLE_NAME} view decodes them
+ * back into the columns of the contract, so reads are unchanged.  The view can't be written
+ * to; writes are encoded here instead, see {@link #insert(SQLiteDatabase, ContentValues)}.
+ *
+ * Measurements keep two decimals, one for wind direction in degrees, which is at least as
+ * precise as OpenWeatherMap reports them.
+ */
+final class WeatherCodec {
+
+    static final String TABLE_DATA = "weather_data";
+    static final String TABLE_DESCRIPTIONS = "weather_desc";
+
+    // The description's id in the data table, and its text in the dictionary
+    static final String COLUMN_DESC_ID = "desc_id";
+    static final String COLUMN_DESCRIPTION = WeatherEntry.COLUMN_SHORT_DESC;
+
+    // Measurements, each stored multiplied by its scale
+    static final String COLUMN_MIN_TEMP = "min_x100";
+    static final String COLUMN_MAX_TEMP = "max_x100";
+    static final String COLUMN_HUMIDITY = "humidity_x100";
+    static final String COLUMN_PRESSURE = "pressure_x100";
+    static final String COLUMN_WIND_SPEED = "wind_x100";
+    static final String COLUMN_DEGREES = "degrees_x10";
+
+    static final int TEMP_SCALE = 100;
+    static final int HUMIDITY_SCALE = 100;
+    static final int PRESSURE_SCALE = 100;
+    static final int WIND_SPEED_SCALE = 100;
+    static final int DEGREES_SCALE = 10;
+
+    // Contract column -> stored column, and the scale of each measurement
+    private static final Map<String, String> sStoredColumns = new HashMap<String, String>();
+    private static final Map<String, Integer> sScales = new HashMap<String, Integer>();
+
+    static {
+        addMeasurement(WeatherEntry.COLUMN_MIN_TEMP, COLUMN_MIN_TEMP, TEMP_SCALE);
+        addMeasurement(WeatherEntry.COLUMN_MAX_TEMP, COLUMN_MAX_TEMP, TEMP_SCALE);
+        addMeasurement(WeatherEntry.COLUMN_HUMIDITY, COLUMN_HUMIDITY, HUMIDITY_SCALE);
+        addMeasurement(WeatherEntry.COLUMN_PRESSURE, COLUMN_PRESSURE, PRESSURE_SCALE);
+        addMeasurement(WeatherEntry.COLUMN_WIND_SPEED, COLUMN_WIND_SPEED, WIND_SPEED_SCALE);
+        addMeasurement(WeatherEntry.COLUMN_DEGREES, COLUMN_DEGREES, DEGREES_SCALE);
+    }
+
+    private static void addMeasurement(String column, String storedColumn, int scale) {
+        sStoredColumns.put(column, storedColumn);
+        sScales.put(column, scale);
+    }
+
+    //INSERT INTO weather_data (location_id, date, weather_id, desc_id, min_x100, ...)
+    //VALUES (?, ?, ...)
+    static final String SQL_INSERT = "INSERT INTO " + TABLE_DATA + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            COLUMN_DESC_ID + ", " +
+            COLUMN_MIN_TEMP + ", " +
+            COLUMN_MAX_TEMP + ", " +
+            COLUMN_HUMIDITY + ", " +
+            COLUMN_PRESSURE + ", " +
+            COLUMN_WIND_SPEED + ", " +
+            COLUMN_DEGREES +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // The _id the view gives a row, see getRowId()
+    private static final String ROW_ID_SQL = "((" + WeatherEntry.COLUMN_LOC_KEY + " << 32) | ((" +
+            WeatherEntry.COLUMN_DATE + " / 1000) & 4294967295))";
+
+    private WeatherCodec() {
+    }
+
+    static String createDataTable() {
+        // Rows are keyed, and without a rowid also stored, by location and date, so one
+        // location's forecast is a single contiguous range.  Small integers take one to three
+        // bytes on disk, against eight for a REAL.
+        return "CREATE TABLE " + TABLE_DATA + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                COLUMN_DESC_ID + " INTEGER NOT NULL, " +
+                COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                WeatherContract.LocationEntry._ID + "), " +
+                " FOREIGN KEY (" + COLUMN_DESC_ID + ") REFERENCES " +
+                TABLE_DESCRIPTIONS + " (" + WeatherEntry._ID + "), " +
+
+                // Still one weather entry per day per location, replaced on conflict
+                " PRIMARY KEY (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)" +
+                // WITHOUT ROWID needs SQLite 3.8.2, which shipped with Lollipop
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? " WITHOUT ROWID;" : ";");
+    }
+
+    static String createDescriptionTable() {
+        return "CREATE TABLE " + TABLE_DESCRIPTIONS + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_DESCRIPTION + " TEXT UNIQUE NOT NULL);";
+    }
+
+    static String createWeatherView() {
+        return "CREATE VIEW " + WeatherEntry.TABLE_NAME + " AS SELECT " +
+                ROW_ID_SQL + " AS " + WeatherEntry._ID + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                "d." + COLUMN_DESCRIPTION + " AS " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                decode(COLUMN_MIN_TEMP, TEMP_SCALE) + " AS " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                decode(COLUMN_MAX_TEMP, TEMP_SCALE) + " AS " + WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                decode(COLUMN_HUMIDITY, HUMIDITY_SCALE) + " AS " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                decode(COLUMN_PRESSURE, PRESSURE_SCALE) + " AS " + WeatherEntry.COLUMN_PRESSURE + ", " +
+                decode(COLUMN_WIND_SPEED, WIND_SPEED_SCALE) + " AS " + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                decode(COLUMN_DEGREES, DEGREES_SCALE) + " AS " + WeatherEntry.COLUMN_DEGREES +
+                " FROM " + TABLE_DATA + " INNER JOIN " + TABLE_DESCRIPTIONS + " d ON " +
+                COLUMN_DESC_ID + " = d." + WeatherEntry._ID + ";";
+    }
+
+    private static String decode(String storedColumn, int scale) {
+        return storedColumn + " / " + scale + ".0";
+    }
+
+    static long encode(double value, int scale) {
+        return Math.round(value * scale);
+    }
+
+    /**
+     * Returns the _id the weather view gives the row of the given location and date: the
+     * location in the high 32 bits, the date in seconds in the low ones.  Unique as long as a
+     * location has no two dates within the same second, which normalized dates never do.
+     */
+    static long getRowId(long locationId, long date) {
+        return (locationId << 32) | ((date / 1000) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Wraps a selection on the weather view into a WHERE clause for the data table that matches
+     * the same rows.
+     */
+    static String whereMatching(String selection) {
+        return "EXISTS (SELECT 1 FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                TABLE_DATA + "." + WeatherEntry.COLUMN_LOC_KEY + " AND " +
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " = " +
+                TABLE_DATA + "." + WeatherEntry.COLUMN_DATE + " AND (" + selection + "))";
+    }
+
+    /**
+     * Returns the id of the given description, adding it to the dictionary if it's new.
+     *
+     * @param descriptionIds ids already looked up by the same write.  Only valid for as long as
+     *                       the write's transaction, since a rollback takes new entries with it.
+     */
+    static long getDescriptionId(SQLiteDatabase db, String description,
+                                 Map<String, Long> descriptionIds) {
+        Long id = descriptionIds.get(description);
+        if (id == null) {
+            try {
+                id = DatabaseUtils.longForQuery(db, "SELECT " + WeatherEntry._ID + " FROM " +
+                        TABLE_DESCRIPTIONS + " WHERE " + COLUMN_DESCRIPTION + " = ?",
+                        new String[]{description});
+            } catch (SQLiteDoneException e) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_DESCRIPTION, description);
+                id = db.insertOrThrow(TABLE_DESCRIPTIONS, null, values);
+            }
+            descriptionIds.put(description, id);
+        }
+        return id;
+    }
+
+    /**
+     * Converts values in the columns of the contract to the columns of the data table.
+     */
+    static ContentValues encode(SQLiteDatabase db, ContentValues values,
+                                Map<String, Long> descriptionIds) {
+        ContentValues encoded = new ContentValues();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            String column = entry.getKey();
+            Integer scale = sScales.get(column);
+            if (scale != null) {
+                Double value = values.getAsDouble(column);
+                if (value != null) {
+                    encoded.put(sStoredColumns.get(column), encode(value, scale));
+                } else {
+                    encoded.putNull(sStoredColumns.get(column));
+                }
+            } else if (WeatherEntry.COLUMN_SHORT_DESC.equals(column)) {
+                String description = values.getAsString(column);
+                if (description != null) {
+                    encoded.put(COLUMN_DESC_ID,
+                            getDescriptionId(db, description, descriptionIds));
+                } else {
+                    encoded.putNull(COLUMN_DESC_ID);
+                }
+            } else {
+                // The keys and weather id are stored as they are
+                encoded.put(column, values.getAsLong(column));
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Inserts a row given in the columns of the contract, replacing the existing weather for
+     * its location and date.
+     *
+     * @return the row's _id in the weather view, or -1 if it couldn't be inserted
+     */
+    static long insert(SQLiteDatabase db, ContentValues values, Map<String, Long> descriptionIds) {
+        // Without a rowid, insert() can't tell us which row it wrote, so check it wrote one
+        if (db.insert(TABLE_DATA, null, encode(db, values, descriptionIds)) == -1) {
+            return -1;
+        }
+        return getRowId(values.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                values.getAsLong(WeatherEntry.COLUMN_DATE));
+    }
+
+    static long insert(SQLiteDatabase db, ContentValues values) {
+        return insert(db, values, new HashMap<String, Long>());
+    }
+
+    /**
+     * Drops the descriptions no weather uses any more.
+     */
+    static void deleteUnusedDescriptions(SQLiteDatabase db) {
+        db.delete(TABLE_DESCRIPTIONS, WeatherEntry._ID + " NOT IN (SELECT " + COLUMN_DESC_ID +
+                " FROM " + TABLE_DATA + ")", null);
+    }
+}
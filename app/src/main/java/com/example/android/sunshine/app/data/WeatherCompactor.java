@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps weather.db bounded and compact on long lived installs.
+ *
+ * A compaction first drops the weather each location no longer wants to keep, then hands the
+ * freed pages back to the file system with an incremental vacuum.  A database that isn't in
+ * incremental auto vacuum mode yet, e.g. one created before Jelly Bean, where the helper can't
+ * set it up front, is switched the first time through, which takes one full VACUUM.  Compactions run inside the {@link WeatherProvider}, so they
+ * share its connection, query cache and change notifications; use
+ * {@link #requestCompaction(Context)} to start one.
+ */
+public final class WeatherCompactor {
+    private static final String LOG_TAG = WeatherCompactor.class.getSimpleName();
+
+    /** The provider method that runs a compaction and returns its {@link Report}. */
+    static final String METHOD_COMPACT = "compact";
+
+    /** Past days of weather kept for a location unless it says otherwise: none. */
+    public static final int DEFAULT_RETENTION_DAYS = 0;
+
+    // A compaction that isn't forced by the job scheduler runs at most this often.
+    private static final long COMPACTION_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+    private static final String PREF_LAST_COMPACTION = "last_compaction";
+
+    // Value of PRAGMA auto_vacuum when it is set to INCREMENTAL
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private WeatherCompactor() {
+    }
+
+    /**
+     * Returns the earliest date a location keeping the given number of past days still keeps.
+     */
+    public static long getRetentionCutoff(int retentionDays) {
+        return SunshineCalendar.getDayStart(
+                SunshineCalendar.getTodayJulianDay() - Math.max(retentionDays, 0));
+    }
+
+    /**
+     * Builds the deletion of the weather the given location no longer keeps.
+     */
+    public static ContentProviderOperation newRetentionDelete(long locationId, int retentionDays) {
+        return ContentProviderOperation.newDelete(
+                WeatherContract.WeatherEntry.buildWeatherRetentionUri())
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(locationId),
+                                Long.toString(getRetentionCutoff(retentionDays))})
+                .withYieldAllowed(true)
+                .build();
+    }
+
+    /**
+     * Builds the retention deletes for every location in the database.
+     */
+    static ArrayList<ContentProviderOperation> buildRetentionOperations(SQLiteDatabase db) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_RETENTION_DAYS},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                operations.add(newRetentionDelete(cursor.getLong(0), cursor.getInt(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        // Weather whose location is gone can't be reached by any query, so it all goes
+        operations.add(ContentProviderOperation.newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                        WeatherContract.LocationEntry._ID + " FROM " +
+                        WeatherContract.LocationEntry.TABLE_NAME + ")", null)
+                .withYieldAllowed(true)
+                .build());
+        return operations;
+    }
+
+    /**
+     * Returns the database's pages that are no longer used to the file system, and reports the
+     * size of the file before and after.  Must not be called inside a transaction.
+     */
+    static Report vacuum(SQLiteDatabase db) {
+        Report report = new Report();
+        report.mPageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        report.mPageCountBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        report.mFreelistCountBefore = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            // Databases that had tables before the helper could set it need one full rebuild
+            // for the setting to take effect.  That also leaves no free pages behind.
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            report.mFullVacuum = true;
+        } else {
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Each step frees a page
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        report.mPageCountAfter = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        report.mFreelistCountAfter = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return report;
+    }
+
+    /**
+     * Runs a compaction now and returns its report, or null if it couldn't be run.  This
+     * touches the disk heavily, so call it from a background thread, ideally while the device
+     * is idle and charging.
+     */
+    public static Report requestCompaction(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Provider methods need Honeycomb.  Retention is still applied by every sync.
+            return null;
+        }
+        Report report = callCompact(context);
+        if (report != null) {
+            Log.d(LOG_TAG, "Compacted weather.db: " + report);
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .putLong(PREF_LAST_COMPACTION, System.currentTimeMillis())
+                    .apply();
+        }
+        return report;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Report callCompact(Context context) {
+        Bundle result = context.getContentResolver().call(
+                WeatherContract.BASE_CONTENT_URI, METHOD_COMPACT, null, null);
+        return result != null ? Report.fromBundle(result) : null;
+    }
+
+    /**
+     * Whether a day has passed since the last compaction.
+     */
+    public static boolean isCompactionDue(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return System.currentTimeMillis() - prefs.getLong(PREF_LAST_COMPACTION, 0)
+                >= COMPACTION_INTERVAL_MILLIS;
+    }
+
+    /**
+     * The size of the database file and its free pages before and after a compaction.
+     */
+    public static final class Report {
+        private static final String KEY_PAGE_SIZE = "page_size";
+        private static final String KEY_PAGE_COUNT_BEFORE = "page_count_before";
+        private static final String KEY_PAGE_COUNT_AFTER = "page_count_after";
+        private static final String KEY_FREELIST_COUNT_BEFORE = "freelist_count_before";
+        private static final String KEY_FREELIST_COUNT_AFTER = "freelist_count_after";
+        private static final String KEY_DELETED_ROWS = "deleted_rows";
+        private static final String KEY_FULL_VACUUM = "full_vacuum";
+
+        long mPageSize;
+        long mPageCountBefore;
+        long mPageCountAfter;
+        long mFreelistCountBefore;
+        long mFreelistCountAfter;
+        int mDeletedRows;
+        boolean mFullVacuum;
+
+        public long getFileSizeBefore() {
+            return mPageCountBefore * mPageSize;
+        }
+
+        public long getFileSizeAfter() {
+            return mPageCountAfter * mPageSize;
+        }
+
+        public long getFreelistCountBefore() {
+            return mFreelistCountBefore;
+        }
+
+        public long getFreelistCountAfter() {
+            return mFreelistCountAfter;
+        }
+
+        public int getDeletedRows() {
+            return mDeletedRows;
+        }
+
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong(KEY_PAGE_SIZE, mPageSize);
+            bundle.putLong(KEY_PAGE_COUNT_BEFORE, mPageCountBefore);
+            bundle.putLong(KEY_PAGE_COUNT_AFTER, mPageCountAfter);
+            bundle.putLong(KEY_FREELIST_COUNT_BEFORE, mFreelistCountBefore);
+            bundle.putLong(KEY_FREELIST_COUNT_AFTER, mFreelistCountAfter);
+            bundle.putInt(KEY_DELETED_ROWS, mDeletedRows);
+            bundle.putBoolean(KEY_FULL_VACUUM, mFullVacuum);
+            return bundle;
+        }
+
+        static Report fromBundle(Bundle bundle) {
+            Report report = new Report();
+            report.mPageSize = bundle.getLong(KEY_PAGE_SIZE);
+            report.mPageCountBefore = bundle.getLong(KEY_PAGE_COUNT_BEFORE);
+            report.mPageCountAfter = bundle.getLong(KEY_PAGE_COUNT_AFTER);
+            report.mFreelistCountBefore = bundle.getLong(KEY_FREELIST_COUNT_BEFORE);
+            report.mFreelistCountAfter = bundle.getLong(KEY_FREELIST_COUNT_AFTER);
+            report.mDeletedRows = bundle.getInt(KEY_DELETED_ROWS);
+            report.mFullVacuum = bundle.getBoolean(KEY_FULL_VACUUM);
+            return report;
+        }
+
+        @Override
+        public String toString() {
+            return "deleted " + mDeletedRows + " rows, file "
+                    + getFileSizeBefore() + " -> " + getFileSizeAfter() + " bytes, freelist "
+                    + mFreelistCountBefore + " -> " + mFreelistCountAfter + " pages"
+                    + (mFullVacuum ? " (full vacuum)" : "");
+        }
+    }
+}
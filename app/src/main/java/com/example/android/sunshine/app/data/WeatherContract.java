@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +42,13 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SUMMARY = "summary";
+    public static final String PATH_DIAGNOSTICS = "diagnostics";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their local Julian day.  See SunshineCalendar.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return SunshineCalendar.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +78,61 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // How many days of past weather to keep for this location, not counting today.  Older
+        // days are removed on sync and by the periodic database compaction.
+        public static final String COLUMN_RETENTION_DAYS = "retention_days";
+
+        // Only in the results of buildLocationNear: kilometres from the point searched around
+        public static final String COLUMN_DISTANCE = "distance";
+
+        public static final String PATH_NEAR = "near";
+        public static final String PATH_SEARCH = "search";
+        private static final String PARAM_SEARCH_TEXT = "q";
+        private static final String PARAM_LATITUDE = "lat";
+        private static final String PARAM_LONGITUDE = "lon";
+        private static final String PARAM_RADIUS = "radius";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * The locations within the given distance of a point, nearest first.
+         */
+        public static Uri buildLocationNear(double latitude, double longitude, double radiusKm) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(PARAM_LATITUDE, Double.toString(latitude))
+                    .appendQueryParameter(PARAM_LONGITUDE, Double.toString(longitude))
+                    .appendQueryParameter(PARAM_RADIUS, Double.toString(radiusKm))
+                    .build();
+        }
+
+        /**
+         * The locations with a word in their setting or city name starting with each word of
+         * the text, a location whose whole setting is the text first.
+         */
+        public static Uri buildLocationSearch(String text) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(PARAM_SEARCH_TEXT, text)
+                    .build();
+        }
+
+        public static String getSearchTextFromUri(Uri uri) {
+            String text = uri.getQueryParameter(PARAM_SEARCH_TEXT);
+            return text != null ? text : "";
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LATITUDE));
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LONGITUDE));
+        }
+
+        public static double getRadiusFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_RADIUS));
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +175,17 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameters of the location uri that bound it to a range of dates or to a page.
+        // Pages are keyed on the last date of the previous page rather than an offset, so
+        // reading one costs the same however far into the history it is.
+        public static final String PARAM_END_DATE = "end_date";
+        public static final String PARAM_AFTER_DATE = "after_date";
+        public static final String PARAM_LIMIT = "limit";
+
+        // Query parameter of the weather uri that marks a delete as retention, which leaves the
+        // deleted days in the summaries.
+        public static final String PARAM_RETENTION = "retention";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +204,51 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * Weather for the location from the start date up to, but not including, the end date.
+         */
+        public static Uri buildWeatherLocationWithDateRange(
+                String locationSetting, long startDate, long endDate) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        /**
+         * The first page of at most limit days of weather for the location, from the start
+         * date on.
+         */
+        public static Uri buildWeatherLocationFirstPage(
+                String locationSetting, long startDate, int limit) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * The page of at most limit days of weather for the location that follows the given
+         * date, which is the last date of the previous page.
+         */
+        public static Uri buildWeatherLocationPage(
+                String locationSetting, long afterDate, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Deletes through this uri drop days the location no longer keeps, and leave the
+         * summaries as they were.
+         */
+        public static Uri buildWeatherRetentionUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_RETENTION, "1").build();
+        }
+
+        public static boolean isRetentionUri(Uri uri) {
+            return null != uri.getQueryParameter(PARAM_RETENTION);
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -164,5 +269,139 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getEndDateFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_END_DATE);
+        }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            return getLongParameter(uri, PARAM_AFTER_DATE);
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            return (int) getLongParameter(uri, PARAM_LIMIT);
+        }
+
+        private static long getLongParameter(Uri uri, String name) {
+            String value = uri.getQueryParameter(name);
+            if (null != value && value.length() > 0)
+                return Long.parseLong(value);
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines the contents of the weather summaries: the weather of a location
+       aggregated over each week or month */
+    public static final class SummaryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SUMMARY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        public static final String TABLE_NAME = "weather_summary";
+
+        // The periods weather is summarized over.  Weeks start on Monday.
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // First day of the week or month, normalized like the weather's dates
+        public static final String COLUMN_START_DATE = "start_date";
+        // How many days of weather went into the summary
+        public static final String COLUMN_DAY_COUNT = "days";
+
+        // Lowest of the daily minimums, highest of the daily maximums, and the mean of the
+        // days' midpoints between the two
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        public static final String COLUMN_MIN_HUMIDITY = "min_humidity";
+        public static final String COLUMN_MAX_HUMIDITY = "max_humidity";
+        public static final String COLUMN_MEAN_HUMIDITY = "mean_humidity";
+
+        public static final String COLUMN_MIN_WIND_SPEED = "min_wind";
+        public static final String COLUMN_MAX_WIND_SPEED = "max_wind";
+        public static final String COLUMN_MEAN_WIND_SPEED = "mean_wind";
+
+        /**
+         * Every summary of the location.  Only used to observe them, queries name a period.
+         */
+        public static Uri buildSummaryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildSummaryLocationWithPeriod(String locationSetting, String period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(period).build();
+        }
+
+        public static Uri buildWeeklySummary(String locationSetting) {
+            return buildSummaryLocationWithPeriod(locationSetting, PERIOD_WEEK);
+        }
+
+        public static Uri buildMonthlySummary(String locationSetting) {
+            return buildSummaryLocationWithPeriod(locationSetting, PERIOD_MONTH);
+        }
+
+        /**
+         * The summaries of the location for the period that start on or after the given date.
+         */
+        public static Uri buildSummaryLocationWithStartDate(
+                String locationSetting, String period, long startDate) {
+            return buildSummaryLocationWithPeriod(locationSetting, period).buildUpon()
+                    .appendQueryParameter(COLUMN_START_DATE,
+                            Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(COLUMN_START_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines the contents of the provider's diagnostics: a row per kind of uri
+       and operation the provider has served since it started, or since they were last reset by
+       deleting CONTENT_URI.  Times are in microseconds, percentiles are accurate to within an
+       eighth of their value. */
+    public static final class DiagnosticsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DIAGNOSTICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_DIAGNOSTICS;
+
+        // The uri pattern, e.g. weather/*/#
+        public static final String COLUMN_URI = "uri";
+        // query, insert, bulk_insert, update or delete
+        public static final String COLUMN_OPERATION = "operation";
+
+        public static final String COLUMN_CALLS = "calls";
+        // Rows returned by queries, or written by the other operations
+        public static final String COLUMN_ROWS = "rows";
+
+        public static final String COLUMN_TOTAL_TIME = "total_us";
+        public static final String COLUMN_P50_TIME = "p50_us";
+        public static final String COLUMN_P90_TIME = "p90_us";
+        public static final String COLUMN_P99_TIME = "p99_us";
+        public static final String COLUMN_MAX_TIME = "max_us";
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+
+/**
+ * One day of a location's forecast, as {@link WeatherRepository} hands it to the app.
+ * Immutable, so the lists the repository caches are shared between readers.
+ */
+public final class WeatherDay {
+
+    // Columns read from the current forecast, in the order of the indices below
+    static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+
+    private final long mId;
+    private final long mDate;
+    private final int mWeatherId;
+    private final String mDescription;
+    private final double mMinTemp;
+    private final double mMaxTemp;
+    private final double mHumidity;
+    private final double mPressure;
+    private final double mWindSpeed;
+    private final double mDegrees;
+
+    private WeatherDay(Cursor cursor) {
+        mId = cursor.getLong(INDEX_ID);
+        mDate = cursor.getLong(INDEX_DATE);
+        mWeatherId = cursor.getInt(INDEX_WEATHER_ID);
+        mDescription = cursor.getString(INDEX_SHORT_DESC);
+        mMinTemp = cursor.getDouble(INDEX_MIN_TEMP);
+        mMaxTemp = cursor.getDouble(INDEX_MAX_TEMP);
+        mHumidity = cursor.getDouble(INDEX_HUMIDITY);
+        mPressure = cursor.getDouble(INDEX_PRESSURE);
+        mWindSpeed = cursor.getDouble(INDEX_WIND_SPEED);
+        mDegrees = cursor.getDouble(INDEX_DEGREES);
+    }
+
+    /**
+     * Reads the current row of a cursor over {@link #COLUMNS}.
+     */
+    static WeatherDay fromCursor(Cursor cursor) {
+        return new WeatherDay(cursor);
+    }
+
+    /**
+     * The row's _id in the weather table, stable for as long as the day is stored.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * The normalized date of the day.
+     */
+    public long getDate() {
+        return mDate;
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    public String getDescription() {
+        return mDescription;
+    }
+
+    public double getMinTemp() {
+        return mMinTemp;
+    }
+
+    public double getMaxTemp() {
+        return mMaxTemp;
+    }
+
+    public double getHumidity() {
+        return mHumidity;
+    }
+
+    public double getPressure() {
+        return mPressure;
+    }
+
+    public double getWindSpeed() {
+        return mWindSpeed;
+    }
+
+    public double getDegrees() {
+        return mDegrees;
+    }
+
+    @Override
+    public String toString() {
+        return mDescription + " on " + mDate + ", " + mMaxTemp + "/" + mMinTemp;
+    }
+}
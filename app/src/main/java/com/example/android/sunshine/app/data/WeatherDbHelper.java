@@ -15,7 +15,9 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.Build;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -28,14 +30,60 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 9;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The weather joined with its location, keyed by location setting and date.  This is what
+    // every location based weather query reads, so it's kept materialized by the triggers below
+    // instead of joining on every read.  Its _id is the weather row's.
+    static final String TABLE_CURRENT_FORECAST = "forecast_current";
+
+    // Columns of the current forecast, in the order the triggers fill them
+    private static final String CURRENT_FORECAST_COLUMNS =
+            WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES + ", " +
+            LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG;
+
+    // SELECT of the current forecast columns from weather w joined with location l
+    private static final String SELECT_CURRENT_FORECAST =
+            "SELECT w." + WeatherEntry._ID + ", w." + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            "w." + WeatherEntry.COLUMN_DATE + ", w." + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            "w." + WeatherEntry.COLUMN_WEATHER_ID + ", w." + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            "w." + WeatherEntry.COLUMN_MAX_TEMP + ", w." + WeatherEntry.COLUMN_HUMIDITY + ", " +
+            "w." + WeatherEntry.COLUMN_PRESSURE + ", w." + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            "w." + WeatherEntry.COLUMN_DEGREES + ", " +
+            "l." + LocationEntry.COLUMN_LOCATION_SETTING + ", l." + LocationEntry.COLUMN_CITY_NAME + ", " +
+            "l." + LocationEntry.COLUMN_COORD_LAT + ", l." + LocationEntry.COLUMN_COORD_LONG +
+            " FROM " + WeatherEntry.TABLE_NAME + " w INNER JOIN " + LocationEntry.TABLE_NAME +
+            " l ON w." + WeatherEntry.COLUMN_LOC_KEY + " = l." + LocationEntry._ID;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    // Lets the WeatherCompactor hand freed pages back to the file system.  Only called on Jelly
+    // Bean and up, before onCreate, so a new database can take the setting before it has any
+    // of our tables.  The compactor checks whether it took, and runs the full VACUUM that
+    // switches the database over if it didn't.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
@@ -45,42 +93,86 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_RETENTION_DAYS + " INTEGER NOT NULL DEFAULT " +
+                WeatherCompactor.DEFAULT_RETENTION_DAYS +
                 " );";
 
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        // Lets NearbyLocations find the locations around a point without a full scan
+        sqLiteDatabase.execSQL(NearbyLocations.createIndex());
+        // And LocationSearch find them by the words of their setting and city name
+        sqLiteDatabase.execSQL(LocationSearch.createTable());
+        LocationSearch.createTriggers(sqLiteDatabase);
+        // Weather is stored compactly and read through a view with the contract's columns
+        sqLiteDatabase.execSQL(WeatherCodec.createDescriptionTable());
+        sqLiteDatabase.execSQL(WeatherCodec.createDataTable());
+        sqLiteDatabase.execSQL(WeatherCodec.createWeatherView());
+        createCurrentForecast(sqLiteDatabase);
+        // Weekly and monthly summaries, kept up to date by triggers on the weather data
+        sqLiteDatabase.execSQL(WeatherSummaries.createDataTable());
+        sqLiteDatabase.execSQL(WeatherSummaries.createArchiveTable());
+        sqLiteDatabase.execSQL(WeatherSummaries.createSummaryView());
+        WeatherSummaries.createTriggers(sqLiteDatabase);
+    }
 
-                // the ID of the location entry associated with this weather data
+    private void createCurrentForecast(SQLiteDatabase sqLiteDatabase) {
+        // The primary key is the only index the reads need: a location's forecast is one range
+        // of it, a single day one entry.  Without a rowid, the rows live in that index itself.
+        sqLiteDatabase.execSQL("CREATE TABLE " + TABLE_CURRENT_FORECAST + " (" +
+                WeatherEntry._ID + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
                 WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                " PRIMARY KEY (" + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                WeatherEntry.COLUMN_DATE + "))" +
+                // WITHOUT ROWID needs SQLite 3.8.2, which shipped with Lollipop
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? " WITHOUT ROWID;" : ";"));
 
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+        // Triggers run inside the statement that fires them, so the table can never disagree
+        // with weather and location, whichever way they are written.  A weather row replaced on
+        // conflict is replaced here the same way, since both are keyed by location and date.
+        final String deleteWeatherRow = "DELETE FROM " + TABLE_CURRENT_FORECAST +
+                " WHERE " + WeatherEntry.COLUMN_DATE + " = OLD." + WeatherEntry.COLUMN_DATE +
+                " AND " + LocationEntry.COLUMN_LOCATION_SETTING + " = (SELECT " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " FROM " + LocationEntry.TABLE_NAME +
+                " WHERE " + LocationEntry._ID + " = OLD." + WeatherEntry.COLUMN_LOC_KEY + "); ";
+        final String insertWeatherRow = "INSERT OR REPLACE INTO " + TABLE_CURRENT_FORECAST +
+                " (" + CURRENT_FORECAST_COLUMNS + ") " + SELECT_CURRENT_FORECAST +
+                " WHERE w." + WeatherEntry.COLUMN_LOC_KEY + " = NEW." + WeatherEntry.COLUMN_LOC_KEY +
+                " AND w." + WeatherEntry.COLUMN_DATE + " = NEW." + WeatherEntry.COLUMN_DATE + "; ";
+        final String deleteLocationRows = "DELETE FROM " + TABLE_CURRENT_FORECAST +
+                " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING +
+                " = OLD." + LocationEntry.COLUMN_LOCATION_SETTING + "; ";
+        final String insertLocationRows = "INSERT OR REPLACE INTO " + TABLE_CURRENT_FORECAST +
+                " (" + CURRENT_FORECAST_COLUMNS + ") " + SELECT_CURRENT_FORECAST +
+                " WHERE l." + LocationEntry._ID + " = NEW." + LocationEntry._ID + "; ";
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL("CREATE TRIGGER weather_insert_forecast AFTER INSERT ON " +
+                WeatherCodec.TABLE_DATA + " BEGIN " + insertWeatherRow + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER weather_update_forecast AFTER UPDATE ON " +
+                WeatherCodec.TABLE_DATA + " BEGIN " + deleteWeatherRow + insertWeatherRow + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER weather_delete_forecast AFTER DELETE ON " +
+                WeatherCodec.TABLE_DATA + " BEGIN " + deleteWeatherRow + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_insert_forecast AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + insertLocationRows + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_update_forecast AFTER UPDATE OF " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME + ", " +
+                LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG + " ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + deleteLocationRows + insertLocationRows + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_delete_forecast AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + deleteLocationRows + "END;");
     }
 
     @Override
@@ -92,7 +184,16 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // If you want to update the schema without wiping data, commenting out the next 2 lines
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        // Weather became a view over the compact tables in version 5
+        sqLiteDatabase.execSQL((oldVersion < 5 ? "DROP TABLE IF EXISTS " : "DROP VIEW IF EXISTS ")
+                + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherCodec.TABLE_DATA);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherCodec.TABLE_DESCRIPTIONS);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_CURRENT_FORECAST);
+        sqLiteDatabase.execSQL("DROP VIEW IF EXISTS " + WeatherContract.SummaryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherSummaries.TABLE_DATA);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherSummaries.TABLE_ARCHIVE);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationSearch.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -17,73 +17,156 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
-    private WeatherDbHelper mOpenHelper;
+    // Everything but the uris lives in the repository, which the rest of the app uses directly
+    private WeatherRepository mRepository;
+    private WeatherQueryCache mQueryCache;
+    private final WeatherProviderStats mStats = new WeatherProviderStats(
+            new int[]{WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE, LOCATION,
+                    LOCATION_NEAR, LOCATION_SEARCH, SUMMARY_WITH_LOCATION_AND_PERIOD},
+            new String[]{"weather", "weather/*", "weather/*/#", "location", "location/near",
+                    "location/search", "summary/*/*"});
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAR = 301;
+    static final int LOCATION_SEARCH = 302;
+    static final int SUMMARY_WITH_LOCATION_AND_PERIOD = 400;
+    static final int DIAGNOSTICS = 500;
+
+    // The most locations a search returns, more than a list of suggestions shows
+    private static final int SEARCH_LIMIT = 20;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        
-        //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
+
+        //The current forecast already holds weather joined with location.  It's aliased as
+        //weather so that projections like weather._id keep working:
+        //forecast_current AS weather
         sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+                WeatherDbHelper.TABLE_CURRENT_FORECAST + " AS " +
+                        WeatherContract.WeatherEntry.TABLE_NAME);
     }
 
-    //location.location_setting = ?
+    //location_setting = ?
     private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    //AND date >= ?
+    private static final String sStartDateSelection =
+            "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+    //AND date < ?
+    private static final String sEndDateSelection =
+            "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
 
-    //location.location_setting = ? AND date = ?
+    //AND date > ?
+    private static final String sAfterDateSelection =
+            "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //location_setting = ? AND date = ?
     private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.WeatherEntry.getEndDateFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
+        StringBuilder selection = new StringBuilder(sLocationSettingSelection);
+        ArrayList<String> selectionArgs = new ArrayList<String>(4);
+        selectionArgs.add(locationSetting);
 
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+        if (startDate != 0) {
+            selection.append(sStartDateSelection);
+            selectionArgs.add(Long.toString(startDate));
+        }
+        if (endDate != 0) {
+            selection.append(sEndDateSelection);
+            selectionArgs.add(Long.toString(endDate));
+        }
+        if (afterDate != 0) {
+            selection.append(sAfterDateSelection);
+            selectionArgs.add(Long.toString(afterDate));
+        }
+        if (limit > 0) {
+            // Pages are keyed on their last date, so they have to be read in date order.  The
+            // primary key of the current forecast hands them over in that order already.
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+
+        return sWeatherByLocationSettingQueryBuilder.query(mRepository.getReadableDatabase(),
+                projection,
+                selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                null,
+                sortOrder,
+                limit > 0 ? Integer.toString(limit) : null
+        );
+    }
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?) AND period = ?
+    private static final String sSummaryLocationSettingAndPeriodSelection =
+            WeatherContract.SummaryEntry.COLUMN_LOC_KEY + " = (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?) AND " +
+                    WeatherContract.SummaryEntry.COLUMN_PERIOD + " = ? ";
+
+    //AND start_date >= ?
+    private static final String sSummaryStartDateSelection =
+            "AND " + WeatherContract.SummaryEntry.COLUMN_START_DATE + " >= ? ";
+
+    private Cursor getSummariesByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.SummaryEntry.getLocationSettingFromUri(uri);
+        String period = WeatherContract.SummaryEntry.getPeriodFromUri(uri);
+        long startDate = WeatherContract.SummaryEntry.getStartDateFromUri(uri);
+
+        if (!WeatherContract.SummaryEntry.PERIOD_WEEK.equals(period)
+                && !WeatherContract.SummaryEntry.PERIOD_MONTH.equals(period)) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        String selection = sSummaryLocationSettingAndPeriodSelection;
+        String[] selectionArgs;
+        if (startDate != 0) {
+            selection += sSummaryStartDateSelection;
+            selectionArgs = new String[]{locationSetting, period, Long.toString(startDate)};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationSetting, period};
+        }
+        if (sortOrder == null) {
+            sortOrder = WeatherContract.SummaryEntry.COLUMN_START_DATE + " ASC";
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        // One range of the summary table's primary key, a row per bucket
+        return mRepository.getReadableDatabase().query(
+                WeatherContract.SummaryEntry.TABLE_NAME,
                 projection,
                 selection,
                 selectionArgs,
@@ -98,7 +181,7 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return sWeatherByLocationSettingQueryBuilder.query(mRepository.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
                 new String[]{locationSetting, Long.toString(date)},
@@ -130,6 +213,15 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAR, LOCATION_NEAR);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_SEARCH, LOCATION_SEARCH);
+
+        matcher.addURI(authority, WeatherContract.PATH_SUMMARY + "/*/*",
+                SUMMARY_WITH_LOCATION_AND_PERIOD);
+
+        matcher.addURI(authority, WeatherContract.PATH_DIAGNOSTICS, DIAGNOSTICS);
         return matcher;
     }
 
@@ -139,7 +231,8 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public boolean onCreate() {
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mRepository = WeatherRepository.getInstance(getContext());
+        mQueryCache = mRepository.getQueryCache();
         return true;
     }
 
@@ -164,6 +257,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAR:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_SEARCH:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SUMMARY_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.SummaryEntry.CONTENT_TYPE;
+            case DIAGNOSTICS:
+                return WeatherContract.DiagnosticsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,22 +275,42 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        final long start = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                WeatherQueryCache.Key key = new WeatherQueryCache.Key(
+                        uri, projection, selection, selectionArgs, sortOrder);
+                retCursor = mQueryCache.get(key);
+                if (retCursor == null) {
+                    long generation = mQueryCache.getGeneration();
+                    retCursor = mQueryCache.put(key,
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            getWeatherByLocationSettingAndDate(uri, projection, sortOrder),
+                            generation);
+                }
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                WeatherQueryCache.Key key = new WeatherQueryCache.Key(
+                        uri, projection, selection, selectionArgs, sortOrder);
+                retCursor = mQueryCache.get(key);
+                if (retCursor == null) {
+                    long generation = mQueryCache.getGeneration();
+                    retCursor = mQueryCache.put(key,
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            getWeatherByLocationSetting(uri, projection, sortOrder),
+                            generation);
+                }
                 break;
             }
             // "weather"
             case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = mRepository.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
                         selection,
@@ -202,7 +323,7 @@ public class WeatherProvider extends ContentProvider {
             }
             // "location"
             case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
+                retCursor = mRepository.getReadableDatabase().query(
                         WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
                         selection,
@@ -213,11 +334,38 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/near"
+            case LOCATION_NEAR: {
+                retCursor = NearbyLocations.query(mRepository.getReadableDatabase(),
+                        WeatherContract.LocationEntry.getLatitudeFromUri(uri),
+                        WeatherContract.LocationEntry.getLongitudeFromUri(uri),
+                        WeatherContract.LocationEntry.getRadiusFromUri(uri),
+                        0);
+                break;
+            }
+            // "location/search"
+            case LOCATION_SEARCH: {
+                retCursor = LocationSearch.query(mRepository.getReadableDatabase(),
+                        WeatherContract.LocationEntry.getSearchTextFromUri(uri),
+                        SEARCH_LIMIT);
+                break;
+            }
+            // "summary/*/*"
+            case SUMMARY_WITH_LOCATION_AND_PERIOD: {
+                retCursor = getSummariesByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "diagnostics"
+            case DIAGNOSTICS:
+                return mStats.toCursor();
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Counting fills the cursor's first window, which its reader would otherwise do right
+        // after.  Doing it here makes the time recorded the time the query actually took.
+        mStats.record(match, WeatherProviderStats.OP_QUERY, retCursor.getCount(), start);
         return retCursor;
     }
 
@@ -226,14 +374,13 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id = mRepository.insertWeather(values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
@@ -241,7 +388,7 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                long _id = mRepository.insertLocation(values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -251,104 +398,133 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        mStats.record(match, WeatherProviderStats.OP_INSERT, 1, start);
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = mRepository.deleteWeather(selection, selectionArgs,
+                        WeatherContract.WeatherEntry.isRetentionUri(uri));
                 break;
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = mRepository.deleteLocations(selection, selectionArgs);
                 break;
+            // Resets the diagnostics
+            case DIAGNOSTICS:
+                return mStats.reset();
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        mStats.record(match, WeatherProviderStats.OP_DELETE, rowsDeleted, start);
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
-        }
+    /**
+     * Applies all of the operations in a single transaction, so that readers never see a
+     * partially applied batch and the whole batch costs one commit.  The database is only
+     * yielded to other threads before operations marked with
+     * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)}, so callers decide
+     * where the safe points between chunks are.  Change notifications are held back until the
+     * batch has been committed and then coalesced, so a whole sync costs observers of a location
+     * a single requery.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        return ingest(null, operations);
+    }
+
+    /**
+     * Inserts the buffered rows and then applies the operations, all as one batch.  Rows go
+     * through a single compiled INSERT with their values bound straight from the buffer, which
+     * skips the {@link ContentValues} and per-row SQL of {@link #insert} and {@link #bulkInsert}.
+     * Only reachable in-process, through
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}; components of the
+     * app should use {@link WeatherRepository#ingest(WeatherRowBuffer)} instead.
+     *
+     * @param rows the rows to insert, or null for none.  Rows replace existing weather for the
+     *             same location and date.
+     * @param operations applied after the rows, e.g. to delete what they superseded
+     */
+    public ContentProviderResult[] ingest(WeatherRowBuffer rows,
+                                          ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        return mRepository.applyBatch(this, rows, operations);
     }
 
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
-
         switch (match) {
             case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                rowsUpdated = mRepository.updateWeather(values, selection, selectionArgs);
                 break;
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                rowsUpdated = mRepository.updateLocations(values, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
+        mStats.record(match, WeatherProviderStats.OP_UPDATE, rowsUpdated, start);
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long start = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         switch (match) {
-            case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
+            case WEATHER: {
+                int returnCount = mRepository.bulkInsertWeather(values);
+                mStats.record(match, WeatherProviderStats.OP_BULK_INSERT, returnCount, start);
                 return returnCount;
+            }
             default:
+                // One insert per row, which records each of them
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherCompactor.METHOD_COMPACT.equals(method)) {
+            return mRepository.compact(this).toBundle();
+        }
+        if (TodayWeather.METHOD_GET_TODAY.equals(method)) {
+            TodayWeather today = mRepository.getToday(arg);
+            return today != null ? today.toBundle() : null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Prints what {@link WeatherContract.DiagnosticsEntry} holds, slowest first, and how well
+     * the query cache is doing:
+     * adb shell dumpsys activity provider com.example.android.sunshine.app/.data.WeatherProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mStats.dump(writer);
+        writer.println("Query cache: " + mQueryCache.getHitCount() + " hits, "
+                + mQueryCache.getMissCount() + " misses");
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
-        mOpenHelper.close();
+        mRepository.close();
         super.shutdown();
     }
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Call counts, row counts and latency histograms of the {@link WeatherProvider}, kept per uri
+ * pattern and operation.
+ *
+ * Recording is lock-free and allocation-free once a pattern has been seen, so it stays on in
+ * release builds.  Latencies go into log-linear buckets: each power of two of microseconds is
+ * split into eight, so any percentile is off by at most an eighth of its value however long the
+ * calls take, from a microsecond to over an hour.
+ */
+class WeatherProviderStats {
+
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    private static final String[] OPERATION_NAMES =
+            {"query", "insert", "bulk_insert", "update", "delete"};
+
+    // Three bits below the leading one, so eight buckets per power of two
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Up to 2^32 us, about 70 minutes.  Anything slower lands in the last bucket.
+    private static final int MAX_EXPONENT = 31;
+    private static final int BUCKETS =
+            SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    static final String[] COLUMNS = {
+            WeatherContract.DiagnosticsEntry._ID,
+            WeatherContract.DiagnosticsEntry.COLUMN_URI,
+            WeatherContract.DiagnosticsEntry.COLUMN_OPERATION,
+            WeatherContract.DiagnosticsEntry.COLUMN_CALLS,
+            WeatherContract.DiagnosticsEntry.COLUMN_ROWS,
+            WeatherContract.DiagnosticsEntry.COLUMN_TOTAL_TIME,
+            WeatherContract.DiagnosticsEntry.COLUMN_P50_TIME,
+            WeatherContract.DiagnosticsEntry.COLUMN_P90_TIME,
+            WeatherContract.DiagnosticsEntry.COLUMN_P99_TIME,
+            WeatherContract.DiagnosticsEntry.COLUMN_MAX_TIME
+    };
+
+    // The match codes and patterns of the provider's uris, in the order they're reported
+    private final int[] mCodes;
+    private final String[] mPatterns;
+    // Index code * operations + operation, created the first time they're recorded
+    private final AtomicReferenceArray<Series> mSeries;
+
+    WeatherProviderStats(int[] codes, String[] patterns) {
+        mCodes = codes;
+        mPatterns = patterns;
+        mSeries = new AtomicReferenceArray<Series>(codes.length * OPERATION_NAMES.length);
+    }
+
+    /**
+     * Records one call of the operation on a uri with the given match code.
+     *
+     * @param rows rows returned by a query, or written by the other operations
+     * @param startNanos {@link System#nanoTime()} when the call started
+     */
+    void record(int code, int operation, int rows, long startNanos) {
+        long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+        int index = indexOf(code);
+        if (index < 0) {
+            return;
+        }
+        index = index * OPERATION_NAMES.length + operation;
+        Series series = mSeries.get(index);
+        if (series == null) {
+            mSeries.compareAndSet(index, null, new Series());
+            series = mSeries.get(index);
+        }
+        series.record(rows, elapsedMicros);
+    }
+
+    private int indexOf(int code) {
+        for (int i = 0; i < mCodes.length; i++) {
+            if (mCodes[i] == code) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops everything recorded so far and returns how many rows {@link #toCursor()} had.
+     */
+    int reset() {
+        int count = 0;
+        for (int i = 0; i < mSeries.length(); i++) {
+            if (mSeries.getAndSet(i, null) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A row over {@link #COLUMNS} for every uri pattern and operation recorded so far.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < mSeries.length(); i++) {
+            Series series = mSeries.get(i);
+            if (series == null) {
+                continue;
+            }
+            long[] histogram = series.snapshot();
+            cursor.addRow(new Object[]{
+                    i,
+                    mPatterns[i / OPERATION_NAMES.length],
+                    OPERATION_NAMES[i % OPERATION_NAMES.length],
+                    series.mCalls.get(),
+                    series.mRows.get(),
+                    series.mTotalMicros.get(),
+                    getPercentile(histogram, 0.50),
+                    getPercentile(histogram, 0.90),
+                    getPercentile(histogram, 0.99),
+                    series.mMaxMicros.get()
+            });
+        }
+        return cursor;
+    }
+
+    /**
+     * Writes a line per uri pattern and operation, slowest total time first.
+     */
+    void dump(PrintWriter writer) {
+        Cursor cursor = toCursor();
+        try {
+            writer.println("WeatherProvider operations (times in us):");
+            writer.printf("  %-24s %-12s %8s %10s %12s %8s %8s %8s %8s%n", "uri", "op",
+                    "calls", "rows", "total", "p50", "p90", "p99", "max");
+            // Few enough rows to just look for the next slowest each time
+            boolean[] printed = new boolean[cursor.getCount()];
+            for (int n = 0; n < printed.length; n++) {
+                int slowest = -1;
+                long slowestTotal = -1;
+                for (int i = 0; i < printed.length; i++) {
+                    cursor.moveToPosition(i);
+                    if (!printed[i] && cursor.getLong(5) > slowestTotal) {
+                        slowest = i;
+                        slowestTotal = cursor.getLong(5);
+                    }
+                }
+                printed[slowest] = true;
+                cursor.moveToPosition(slowest);
+                writer.printf("  %-24s %-12s %8d %10d %12d %8d %8d %8d %8d%n",
+                        cursor.getString(1), cursor.getString(2), cursor.getLong(3),
+                        cursor.getLong(4), cursor.getLong(5), cursor.getLong(6),
+                        cursor.getLong(7), cursor.getLong(8), cursor.getLong(9));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static int getBucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The largest value that falls into the given bucket.
+     */
+    static long getBucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    static long getPercentile(long[] histogram, double fraction) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                return getBucketLimit(bucket);
+            }
+        }
+        return getBucketLimit(histogram.length - 1);
+    }
+
+    private static class Series {
+        final AtomicLong mCalls = new AtomicLong();
+        final AtomicLong mRows = new AtomicLong();
+        final AtomicLong mTotalMicros = new AtomicLong();
+        final AtomicLong mMaxMicros = new AtomicLong();
+        final AtomicLongArray mHistogram = new AtomicLongArray(BUCKETS);
+
+        void record(int rows, long micros) {
+            mCalls.incrementAndGet();
+            mRows.addAndGet(rows);
+            mTotalMicros.addAndGet(micros);
+            mHistogram.incrementAndGet(getBucket(micros));
+            long max = mMaxMicros.get();
+            while (micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+                max = mMaxMicros.get();
+            }
+        }
+
+        long[] snapshot() {
+            long[] histogram = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram[i] = mHistogram.get(i);
+            }
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory LRU cache of query results for the {@link WeatherProvider}.
+ *
+ * Results are stored as plain row data and handed back as fresh read-only cursors, so repeated
+ * reads of the same forecast between syncs never touch the database.  Every entry is tagged with
+ * the location setting it was read for, which lets writes invalidate only the affected location.
+ * Alongside the results, the cache keeps each location's {@link TodayWeather} and the typed
+ * forecast {@link WeatherRepository} last read for it, which are invalidated the same way.
+ */
+class WeatherQueryCache {
+
+    // Rough per-object overheads used when estimating the memory footprint of an entry.
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int ROW_OVERHEAD_BYTES = 16;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+
+    private final LruCache<Key, Result> mResults;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    // Location setting -> its first forecast day from today on
+    private final Map<String, TodaySnapshot> mToday = new ConcurrentHashMap<String, TodaySnapshot>();
+    // Location setting -> its forecast from the start date last asked for
+    private final Map<String, ForecastSnapshot> mForecasts =
+            new ConcurrentHashMap<String, ForecastSnapshot>();
+
+    // Bumped on every invalidation.  A query only stores its result if no write happened while
+    // it was reading, otherwise a stale result could be cached after the invalidation ran.
+    private final AtomicLong mGeneration = new AtomicLong();
+    // Held to check the generation and store a result, and to invalidate, so an invalidation
+    // can't run between the check and the store.  Reads don't take it.
+    private final Object mLock = new Object();
+
+    WeatherQueryCache(int maxSizeBytes) {
+        mResults = new LruCache<Key, Result>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(Key key, Result result) {
+                return result.mSizeBytes;
+            }
+        };
+    }
+
+    /**
+     * Returns a new cursor over the cached result for the given key, or null on a miss.
+     */
+    Cursor get(Key key) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return new ResultCursor(result);
+    }
+
+    /**
+     * The generation to pass to {@link #put} for a query that is about to hit the database.
+     */
+    long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Copies the rows of the given cursor into the cache and returns a cursor over the copy.
+     * The passed in cursor is always closed.
+     *
+     * @param generation the value of {@link #getGeneration()} read before the query was run
+     */
+    Cursor put(Key key, String locationSetting, Cursor cursor, long generation) {
+        Result result;
+        try {
+            result = Result.copyOf(locationSetting, cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (mLock) {
+            if (generation == mGeneration.get()) {
+                mResults.put(key, result);
+            }
+        }
+        return new ResultCursor(result);
+    }
+
+    /**
+     * Returns the location's cached first forecast day on or after the given day, or null if
+     * it isn't cached.
+     *
+     * @param today the normalized date of today
+     */
+    TodayWeather getToday(String locationSetting, long today) {
+        TodaySnapshot snapshot = mToday.get(locationSetting);
+        // Nothing lay between the day the snapshot was read on and its forecast day, so it
+        // stays the first one from any day in between.
+        if (snapshot == null || today < snapshot.mReadOn
+                || today > snapshot.mWeather.getDate()) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return snapshot.mWeather;
+    }
+
+    /**
+     * Caches the location's first forecast day from the given day on.
+     *
+     * @param generation the value of {@link #getGeneration()} read before the query was run
+     */
+    void putToday(String locationSetting, long today, TodayWeather weather, long generation) {
+        synchronized (mLock) {
+            if (generation == mGeneration.get()) {
+                mToday.put(locationSetting, new TodaySnapshot(today, weather));
+            }
+        }
+    }
+
+    /**
+     * Returns the location's cached forecast from the given date on, or null if it isn't
+     * cached.
+     */
+    List<WeatherDay> getForecast(String locationSetting, long startDate) {
+        ForecastSnapshot snapshot = mForecasts.get(locationSetting);
+        if (snapshot == null || snapshot.mStartDate != startDate) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return snapshot.mDays;
+    }
+
+    /**
+     * Caches the location's forecast from the given date on, replacing the one from any other
+     * date.
+     *
+     * @param generation the value of {@link #getGeneration()} read before the query was run
+     */
+    void putForecast(String locationSetting, long startDate, List<WeatherDay> days,
+                     long generation) {
+        synchronized (mLock) {
+            if (generation == mGeneration.get()) {
+                mForecasts.put(locationSetting, new ForecastSnapshot(startDate, days));
+            }
+        }
+    }
+
+    /**
+     * Drops every cached result read for the given location setting.
+     */
+    void invalidateLocation(String locationSetting) {
+        synchronized (mLock) {
+            mGeneration.incrementAndGet();
+            mToday.remove(locationSetting);
+            mForecasts.remove(locationSetting);
+            for (Map.Entry<Key, Result> entry : mResults.snapshot().entrySet()) {
+                if (locationSetting.equals(entry.getValue().mLocationSetting)) {
+                    mResults.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (mLock) {
+            mGeneration.incrementAndGet();
+            mToday.clear();
+            mForecasts.clear();
+            mResults.evictAll();
+        }
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherQueryCache[hits=" + mHits.get() + ", misses=" + mMisses.get()
+                + ", entries=" + mResults.size() + "/" + mResults.maxSize() + " bytes]";
+    }
+
+    /**
+     * Identifies a query by everything that can change its result.
+     */
+    static final class Key {
+        private final String mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final int mHashCode;
+
+        Key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+            mUri = uri.toString();
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+
+            int hash = mUri.hashCode();
+            hash = 31 * hash + Arrays.hashCode(mProjection);
+            hash = 31 * hash + (mSelection != null ? mSelection.hashCode() : 0);
+            hash = 31 * hash + Arrays.hashCode(mSelectionArgs);
+            hash = 31 * hash + (mSortOrder != null ? mSortOrder.hashCode() : 0);
+            mHashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mHashCode == other.mHashCode
+                    && mUri.equals(other.mUri)
+                    && Arrays.equals(mProjection, other.mProjection)
+                    && (mSelection == null ? other.mSelection == null
+                            : mSelection.equals(other.mSelection))
+                    && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && (mSortOrder == null ? other.mSortOrder == null
+                            : mSortOrder.equals(other.mSortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private static final class TodaySnapshot {
+        // The normalized date the weather was read as today's
+        final long mReadOn;
+        final TodayWeather mWeather;
+
+        TodaySnapshot(long readOn, TodayWeather weather) {
+            mReadOn = readOn;
+            mWeather = weather;
+        }
+    }
+
+    private static final class ForecastSnapshot {
+        final long mStartDate;
+        final List<WeatherDay> mDays;
+
+        ForecastSnapshot(long startDate, List<WeatherDay> days) {
+            mStartDate = startDate;
+            mDays = days;
+        }
+    }
+
+    /**
+     * An immutable copy of a query result.
+     */
+    private static final class Result {
+        final String mLocationSetting;
+        final String[] mColumnNames;
+        final Object[][] mRows;
+        final int mSizeBytes;
+
+        private Result(String locationSetting, String[] columnNames, Object[][] rows,
+                       int sizeBytes) {
+            mLocationSetting = locationSetting;
+            mColumnNames = columnNames;
+            mRows = rows;
+            mSizeBytes = sizeBytes;
+        }
+
+        static Result copyOf(String locationSetting, Cursor cursor) {
+            String[] columnNames = cursor.getColumnNames();
+            int columnCount = columnNames.length;
+            Object[][] rows = new Object[cursor.getCount()][];
+            int size = ENTRY_OVERHEAD_BYTES;
+
+            int row = 0;
+            while (cursor.moveToNext()) {
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    Object value = readValue(cursor, i);
+                    values[i] = value;
+                    size += VALUE_OVERHEAD_BYTES;
+                    if (value instanceof String) {
+                        size += 2 * ((String) value).length();
+                    } else if (value instanceof byte[]) {
+                        size += ((byte[]) value).length;
+                    }
+                }
+                rows[row++] = values;
+                size += ROW_OVERHEAD_BYTES;
+            }
+            return new Result(locationSetting, columnNames, rows, size);
+        }
+
+        private static Object readValue(Cursor cursor, int column) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return readTypedValue(cursor, column);
+            }
+            // Before Honeycomb there is no way to ask a cursor for the type of a column, so we
+            // keep the string form.  Numeric getters on the cached cursor will parse it back.
+            return cursor.getString(column);
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Object readTypedValue(Cursor cursor, int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return cursor.getString(column);
+            }
+        }
+    }
+
+    /**
+     * A read-only cursor over a cached {@link Result}.  Rows are shared, not copied.
+     */
+    private static final class ResultCursor extends AbstractCursor {
+        private final Result mResult;
+
+        ResultCursor(Result result) {
+            mResult = result;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= mResult.mColumnNames.length) {
+                throw new IllegalArgumentException("Invalid column " + column);
+            }
+            if (mPos < 0 || mPos >= mResult.mRows.length) {
+                throw new IllegalStateException("Cursor is not positioned on a row");
+            }
+            return mResult.mRows[mPos][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mResult.mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mResult.mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).longValue();
+            try {
+                return Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                return (long) Double.parseDouble(value.toString());
+            }
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).doubleValue();
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            if (value == null || value instanceof byte[]) return (byte[]) value;
+            throw new UnsupportedOperationException("Column " + column + " is not a blob");
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) return Cursor.FIELD_TYPE_NULL;
+            if (value instanceof Long) return Cursor.FIELD_TYPE_INTEGER;
+            if (value instanceof Double) return Cursor.FIELD_TYPE_FLOAT;
+            if (value instanceof byte[]) return Cursor.FIELD_TYPE_BLOB;
+            return Cursor.FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
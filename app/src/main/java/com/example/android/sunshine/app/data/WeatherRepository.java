@@ -0,0 +1,764 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The weather database, for the components of the app.
+ *
+ * Everything in our process that reads or writes weather should come through here: reads
+ * return typed rows, writes take typed rows, and changes are reported to typed listeners, with
+ * no uri matching or cursor wrapping on the way.  {@link WeatherProvider} is a thin adapter over
+ * the same instance for callers that need a ContentResolver, so both see one connection, one
+ * query cache and one stream of changes.  A write through either is published the same way:
+ * once it commits, the cache drops the affected locations, content observers of their uris are
+ * notified and so are this class's listeners.
+ */
+public final class WeatherRepository {
+    private static final String LOG_TAG = WeatherRepository.class.getSimpleName();
+
+    private static WeatherRepository sInstance;
+
+    // Results of the location based weather queries are kept in memory until a write touches
+    // that location, so the list, detail, widgets and Muzei can share one read per sync.
+    private static final int QUERY_CACHE_SIZE_BYTES = 256 * 1024;
+
+    /**
+     * How close a stored location has to be to stand in for a newly picked place.  Roughly a
+     * neighbourhood, well inside the area one of the weather service's forecasts covers.
+     */
+    public static final double NEARBY_RADIUS_KM = 5;
+
+    // How long a batch sleeps when it yields the database to another thread.
+    private static final long BATCH_YIELD_SLEEP_MILLIS = 0;
+
+    //location._id = ?
+    private static final String sLocationIdSelection =
+            LocationEntry._ID + " = ? ";
+
+    //location_setting = ?
+    private static final String sLocationSettingSelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    //location_setting = ? AND date >= ?
+    private static final String sLocationSettingWithStartDateSelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //location_setting = ? AND date = ?
+    private static final String sLocationSettingAndDaySelection =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //location_id = ? AND date < ?
+    private static final String sRetentionSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " < ? ";
+
+    /**
+     * Told about every committed change to the weather database.  Called on the thread that
+     * made the change, after it has been committed, so keep it short and hop threads for
+     * anything else.
+     */
+    public interface OnChangeListener {
+        /**
+         * The weather of the given location changed.
+         *
+         * @param locationSetting the location, or null if the weather of any location may have
+         *                        changed
+         */
+        void onWeatherChanged(String locationSetting);
+
+        /**
+         * Locations were added, removed or changed.
+         */
+        void onLocationsChanged();
+    }
+
+    private final Context mContext;
+    private final WeatherDbHelper mOpenHelper;
+    private final WeatherQueryCache mQueryCache = new WeatherQueryCache(QUERY_CACHE_SIZE_BYTES);
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<OnChangeListener>();
+
+    // While a thread is applying a batch, everything it changed is collected here and published
+    // once the whole batch has been committed.
+    private final ThreadLocal<WeatherChangeSet> mBatchChanges = new ThreadLocal<WeatherChangeSet>();
+
+    private WeatherRepository(Context context) {
+        mContext = context;
+        mOpenHelper = new WeatherDbHelper(context);
+    }
+
+    /**
+     * Returns the repository of this process.
+     */
+    public static synchronized WeatherRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public void addOnChangeListener(OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    SQLiteDatabase getReadableDatabase() {
+        return mOpenHelper.getReadableDatabase();
+    }
+
+    WeatherQueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
+    void close() {
+        mOpenHelper.close();
+    }
+
+    /**
+     * Returns the forecast of the given location from the given day on, in date order.  The
+     * list is shared with other readers and can't be modified.  Don't call it on the main
+     * thread.
+     */
+    public List<WeatherDay> getForecast(String locationSetting, long startDate) {
+        startDate = WeatherContract.normalizeDate(startDate);
+        List<WeatherDay> forecast = mQueryCache.getForecast(locationSetting, startDate);
+        if (forecast != null) {
+            return forecast;
+        }
+
+        long generation = mQueryCache.getGeneration();
+        Cursor cursor = getReadableDatabase().query(WeatherDbHelper.TABLE_CURRENT_FORECAST,
+                WeatherDay.COLUMNS,
+                sLocationSettingWithStartDateSelection,
+                new String[]{locationSetting, Long.toString(startDate)},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            List<WeatherDay> days = new ArrayList<WeatherDay>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                days.add(WeatherDay.fromCursor(cursor));
+            }
+            forecast = Collections.unmodifiableList(days);
+        } finally {
+            cursor.close();
+        }
+        mQueryCache.putForecast(locationSetting, startDate, forecast, generation);
+        return forecast;
+    }
+
+    /**
+     * Returns the weather of the given location on the given day, or null if there is none.
+     */
+    public WeatherDay getWeather(String locationSetting, long date) {
+        Cursor cursor = getReadableDatabase().query(WeatherDbHelper.TABLE_CURRENT_FORECAST,
+                WeatherDay.COLUMNS,
+                sLocationSettingAndDaySelection,
+                new String[]{locationSetting,
+                        Long.toString(WeatherContract.normalizeDate(date))},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? WeatherDay.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the location's first forecast day from today on, from memory if it's been read
+     * since the location's weather last changed.
+     */
+    public TodayWeather getToday(String locationSetting) {
+        long today = SunshineCalendar.getDayStart(SunshineCalendar.getTodayJulianDay());
+        TodayWeather weather = mQueryCache.getToday(locationSetting, today);
+        if (weather != null) {
+            return weather;
+        }
+
+        long generation = mQueryCache.getGeneration();
+        Cursor cursor = getReadableDatabase().query(WeatherDbHelper.TABLE_CURRENT_FORECAST,
+                TodayWeather.COLUMNS,
+                sLocationSettingWithStartDateSelection,
+                new String[]{locationSetting, Long.toString(today)},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC",
+                "1");
+        try {
+            weather = TodayWeather.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+        if (weather != null) {
+            mQueryCache.putToday(locationSetting, today, weather, generation);
+        }
+        return weather;
+    }
+
+    /**
+     * Returns the row id of the location with the given setting, or -1 if it hasn't been added.
+     */
+    public long getLocationId(String locationSetting) {
+        return getLocationId(getReadableDatabase(), locationSetting);
+    }
+
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID},
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns how many past days of weather the location with the given row id keeps.
+     */
+    public int getRetentionDays(long locationId) {
+        Cursor cursor = getReadableDatabase().query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_RETENTION_DAYS},
+                sLocationIdSelection,
+                new String[]{Long.toString(locationId)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : WeatherCompactor.DEFAULT_RETENTION_DAYS;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the stored location nearest to the given point, or null if none is within the
+     * radius.
+     */
+    public StoredLocation findNearbyLocation(double lat, double lon, double radiusKm) {
+        Cursor cursor = NearbyLocations.query(getReadableDatabase(), lat, lon, radiusKm, 1);
+        try {
+            // The nearby columns start with the stored location's
+            return cursor.moveToFirst() ? StoredLocation.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the stored locations with a word in their setting or city name starting with
+     * each word of the text, as typed into the location preference.  A location whose whole
+     * setting is the text comes first.
+     */
+    public List<StoredLocation> searchLocations(String text, int limit) {
+        Cursor cursor = LocationSearch.query(getReadableDatabase(), text, limit);
+        try {
+            List<StoredLocation> locations = new ArrayList<StoredLocation>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                locations.add(StoredLocation.fromCursor(cursor));
+            }
+            return locations;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds a location and returns its row id.
+     */
+    public long addLocation(String locationSetting, String cityName, double lat, double lon) {
+        return insertLocation(createLocationValues(locationSetting, cityName, lat, lon));
+    }
+
+    private static ContentValues createLocationValues(String locationSetting, String cityName,
+                                                      double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        return values;
+    }
+
+    /**
+     * Inserts the buffered rows, then drops the weather each of their locations no longer
+     * keeps, all in one transaction published as one change.  Rows replace existing weather for
+     * the same location and date.
+     */
+    public void ingest(WeatherRowBuffer rows) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = new WeatherChangeSet();
+        db.beginTransaction();
+        try {
+            ingest(db, changes, rows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            dispatchChanges(changes);
+        }
+    }
+
+    /**
+     * Ingests a forecast of the location with the given setting, adding the location first if
+     * it's new, all in the same transaction.  A reader never sees the new location without its
+     * forecast.  The location ids the rows were added with are replaced by the location's.
+     */
+    public void ingest(String locationSetting, String cityName, double lat, double lon,
+                       WeatherRowBuffer rows) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = new WeatherChangeSet();
+        db.beginTransaction();
+        try {
+            long locationId = getLocationId(db, locationSetting);
+            if (locationId == -1) {
+                locationId = db.insertOrThrow(LocationEntry.TABLE_NAME, null,
+                        createLocationValues(locationSetting, cityName, lat, lon));
+                // Queries for this setting may have cached an empty result before it existed
+                changes.addWeather(locationSetting);
+                changes.addLocations();
+            }
+            Arrays.fill(rows.mLocationIds, 0, rows.mSize, locationId);
+            ingest(db, changes, rows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            dispatchChanges(changes);
+        }
+    }
+
+    private void ingest(SQLiteDatabase db, WeatherChangeSet changes, WeatherRowBuffer rows) {
+        insertRows(db, rows, changes);
+        Set<Long> locationIds = new HashSet<Long>();
+        for (int i = 0; i < rows.mSize; i++) {
+            locationIds.add(rows.mLocationIds[i]);
+        }
+        for (long locationId : locationIds) {
+            long cutoff = WeatherCompactor.getRetentionCutoff(getRetentionDays(locationId));
+            deleteWeather(db, changes, sRetentionSelection,
+                    new String[]{Long.toString(locationId), Long.toString(cutoff)}, true);
+        }
+    }
+
+    long insertWeather(ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = beginChanges();
+        normalizeDate(values);
+        long _id = WeatherCodec.insert(db, values);
+        if (_id > 0) {
+            addWeatherChange(db, changes,
+                    values.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                    values.getAsLong(WeatherEntry.COLUMN_DATE));
+            commitChanges(changes);
+        }
+        return _id;
+    }
+
+    long insertLocation(ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = beginChanges();
+        long _id = db.insert(LocationEntry.TABLE_NAME, null, values);
+        if (_id > 0) {
+            // Queries for this setting may have cached an empty result before it existed
+            String locationSetting = values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+            if (locationSetting != null) {
+                changes.addWeather(locationSetting);
+            } else {
+                changes.addAllWeather();
+            }
+            changes.addLocations();
+            commitChanges(changes);
+        }
+        return _id;
+    }
+
+    int bulkInsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = beginChanges();
+        final Map<String, Long> descriptionIds = new HashMap<String, Long>();
+        db.beginTransaction();
+        int returnCount = 0;
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                long _id = WeatherCodec.insert(db, value, descriptionIds);
+                if (_id != -1) {
+                    returnCount++;
+                    addWeatherChange(db, changes,
+                            value.getAsLong(WeatherEntry.COLUMN_LOC_KEY),
+                            value.getAsLong(WeatherEntry.COLUMN_DATE));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        commitChanges(changes);
+        return returnCount;
+    }
+
+    /**
+     * @param retention whether the days are deleted because their location no longer keeps
+     *                  them, in which case the summaries keep them
+     */
+    int deleteWeather(String selection, String[] selectionArgs, boolean retention) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = beginChanges();
+        int rowsDeleted = deleteWeather(db, changes, selection, selectionArgs, retention);
+        if (rowsDeleted != 0) {
+            commitChanges(changes);
+        }
+        return rowsDeleted;
+    }
+
+    private int deleteWeather(SQLiteDatabase db, WeatherChangeSet changes, String selection,
+                              String[] selectionArgs, boolean retention) {
+        // this makes delete all rows return the number of rows deleted
+        if (null == selection) selection = "1";
+        // Look at what the selection matches first, so only the affected days of the affected
+        // locations are notified.  A selection that matches nothing costs nobody a requery.
+        addWeatherChanges(db, changes, selection, selectionArgs);
+        if (!retention) {
+            return db.delete(WeatherCodec.TABLE_DATA, WeatherCodec.whereMatching(selection),
+                    selectionArgs);
+        }
+        // The days are archived and deleted together, or neither
+        db.beginTransaction();
+        try {
+            WeatherSummaries.archive(db, selection, selectionArgs);
+            int rowsDeleted = db.delete(WeatherCodec.TABLE_DATA,
+                    WeatherCodec.whereMatching(selection), selectionArgs);
+            db.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    int deleteLocations(String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = beginChanges();
+        if (null == selection) selection = "1";
+        addLocationChanges(db, changes, selection, selectionArgs);
+        int rowsDeleted = db.delete(LocationEntry.TABLE_NAME, selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            commitChanges(changes);
+        }
+        return rowsDeleted;
+    }
+
+    int updateWeather(ContentValues values, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = beginChanges();
+        normalizeDate(values);
+        if (values.containsKey(WeatherEntry.COLUMN_LOC_KEY)
+                || values.containsKey(WeatherEntry.COLUMN_DATE)) {
+            // Rows are moving to another location or day, which the selection can't tell
+            changes.addAllWeather();
+        } else {
+            addWeatherChanges(db, changes, selection, selectionArgs);
+        }
+        int rowsUpdated = db.update(WeatherCodec.TABLE_DATA,
+                WeatherCodec.encode(db, values, new HashMap<String, Long>()),
+                WeatherCodec.whereMatching(selection != null ? selection : "1"),
+                selectionArgs);
+        if (rowsUpdated != 0) {
+            commitChanges(changes);
+        }
+        return rowsUpdated;
+    }
+
+    int updateLocations(ContentValues values, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = beginChanges();
+        if (values.containsKey(LocationEntry.COLUMN_LOCATION_SETTING)) {
+            changes.addAllWeather();
+        }
+        addLocationChanges(db, changes, selection, selectionArgs);
+        int rowsUpdated = db.update(LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            commitChanges(changes);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Inserts the buffered rows and then applies the operations to the given provider, all in
+     * one transaction.  The database is only yielded to other threads before operations marked
+     * with {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)}.  Changes are
+     * published once, after the batch.
+     *
+     * @param provider the provider the operations are applied to, which must write through
+     *                 this repository
+     * @param rows the rows to insert, or null for none
+     */
+    ContentProviderResult[] applyBatch(ContentProvider provider, WeatherRowBuffer rows,
+                                       ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final WeatherChangeSet changes = new WeatherChangeSet();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+
+        mBatchChanges.set(changes);
+        db.beginTransaction();
+        try {
+            if (rows != null) {
+                insertRows(db, rows, changes);
+            }
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    db.yieldIfContendedSafely(BATCH_YIELD_SLEEP_MILLIS);
+                }
+                results[i] = operation.apply(provider, results, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+            // Chunks committed at a yield point stay committed even if a later operation fails,
+            // so whatever was recorded is published either way.
+            dispatchChanges(changes);
+        }
+        return results;
+    }
+
+    /**
+     * Applies every location's retention through the given provider, then vacuums the
+     * database.
+     */
+    WeatherCompactor.Report compact(ContentProvider provider) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int deletedRows = 0;
+        try {
+            // Going through a batch keeps the query cache and observers up to date
+            for (ContentProviderResult result : applyBatch(provider, null,
+                    WeatherCompactor.buildRetentionOperations(db))) {
+                deletedRows += result.count;
+            }
+        } catch (OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error applying retention", e);
+        }
+        WeatherCodec.deleteUnusedDescriptions(db);
+        WeatherCompactor.Report report = WeatherCompactor.vacuum(db);
+        report.mDeletedRows = deletedRows;
+        return report;
+    }
+
+    private void insertRows(SQLiteDatabase db, WeatherRowBuffer rows, WeatherChangeSet changes) {
+        final SQLiteStatement insert = db.compileStatement(WeatherCodec.SQL_INSERT);
+        // Good for this transaction only, like the dictionary entries it adds
+        final Map<String, Long> descriptionIds = new HashMap<String, Long>();
+        // Rows usually come grouped by location, so changes are recorded once per run of rows
+        // for the same location instead of once per row.
+        long runLocationId = 0;
+        long runMinDate = Long.MAX_VALUE;
+        long runMaxDate = Long.MIN_VALUE;
+        try {
+            for (int i = 0; i < rows.mSize; i++) {
+                long locationId = rows.mLocationIds[i];
+                long date = SunshineCalendar.normalizeDate(rows.mDates[i]);
+
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, date);
+                insert.bindLong(3, rows.mWeatherIds[i]);
+                insert.bindLong(4, WeatherCodec.getDescriptionId(
+                        db, rows.mShortDescs[i], descriptionIds));
+                insert.bindLong(5, WeatherCodec.encode(rows.mMinTemps[i], WeatherCodec.TEMP_SCALE));
+                insert.bindLong(6, WeatherCodec.encode(rows.mMaxTemps[i], WeatherCodec.TEMP_SCALE));
+                insert.bindLong(7, WeatherCodec.encode(rows.mHumidities[i],
+                        WeatherCodec.HUMIDITY_SCALE));
+                insert.bindLong(8, WeatherCodec.encode(rows.mPressures[i],
+                        WeatherCodec.PRESSURE_SCALE));
+                insert.bindLong(9, WeatherCodec.encode(rows.mWindSpeeds[i],
+                        WeatherCodec.WIND_SPEED_SCALE));
+                insert.bindLong(10, WeatherCodec.encode(rows.mDegrees[i],
+                        WeatherCodec.DEGREES_SCALE));
+                insert.executeInsert();
+
+                if (i > 0 && locationId != runLocationId) {
+                    addWeatherChange(db, changes, runLocationId, runMinDate, runMaxDate);
+                    runMinDate = Long.MAX_VALUE;
+                    runMaxDate = Long.MIN_VALUE;
+                }
+                runLocationId = locationId;
+                runMinDate = Math.min(runMinDate, date);
+                runMaxDate = Math.max(runMaxDate, date);
+            }
+            if (rows.mSize > 0) {
+                addWeatherChange(db, changes, runLocationId, runMinDate, runMaxDate);
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Returns the change set a write should record into: the running batch's if the calling
+     * thread is applying one, otherwise a fresh one.
+     */
+    private WeatherChangeSet beginChanges() {
+        WeatherChangeSet batchChanges = mBatchChanges.get();
+        return batchChanges != null ? batchChanges : new WeatherChangeSet();
+    }
+
+    /**
+     * Publishes the changes of a committed write, unless they belong to a batch, which
+     * publishes everything at once when it commits.
+     */
+    private void commitChanges(WeatherChangeSet changes) {
+        if (changes != mBatchChanges.get()) {
+            dispatchChanges(changes);
+        }
+    }
+
+    private void dispatchChanges(WeatherChangeSet changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        changes.invalidate(mQueryCache);
+        for (Uri uri : changes.getNotificationUris()) {
+            mContext.getContentResolver().notifyChange(uri, null);
+        }
+        for (OnChangeListener listener : mListeners) {
+            changes.dispatchTo(listener);
+        }
+    }
+
+    /**
+     * Records a change to the weather of the location with the given row id between the two
+     * dates.  If the location can't be resolved the change is recorded against every location,
+     * since we can no longer tell who is affected.
+     */
+    private void addWeatherChange(SQLiteDatabase db, WeatherChangeSet changes, Long locationId,
+                                  long minDate, long maxDate) {
+        String locationSetting = null;
+        if (locationId != null) {
+            locationSetting = changes.getLocationSetting(locationId);
+            if (locationSetting == null) {
+                Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                        new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                        sLocationIdSelection,
+                        new String[]{Long.toString(locationId)},
+                        null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        locationSetting = cursor.getString(0);
+                        changes.putLocationSetting(locationId, locationSetting);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+        if (locationSetting != null) {
+            changes.addWeather(locationSetting, minDate, maxDate);
+        } else {
+            changes.addAllWeather();
+        }
+    }
+
+    private void addWeatherChange(SQLiteDatabase db, WeatherChangeSet changes, Long locationId,
+                                  Long date) {
+        if (date != null) {
+            addWeatherChange(db, changes, locationId, date, date);
+        } else {
+            addWeatherChange(db, changes, locationId, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Records the locations and date ranges of the weather rows matching the given selection.
+     */
+    private void addWeatherChanges(SQLiteDatabase db, WeatherChangeSet changes,
+                                   String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                new String[]{
+                        WeatherEntry.COLUMN_LOC_KEY,
+                        "MIN(" + WeatherEntry.COLUMN_DATE + ")",
+                        "MAX(" + WeatherEntry.COLUMN_DATE + ")"},
+                selection,
+                selectionArgs,
+                WeatherEntry.COLUMN_LOC_KEY,
+                null, null);
+        try {
+            while (cursor.moveToNext()) {
+                addWeatherChange(db, changes, cursor.getLong(0), cursor.getLong(1),
+                        cursor.getLong(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records the locations matching the given selection, along with all of their weather.
+     */
+    private void addLocationChanges(SQLiteDatabase db, WeatherChangeSet changes,
+                                    String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                selection,
+                selectionArgs,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.addWeather(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        changes.addLocations();
+    }
+
+    private void normalizeDate(ContentValues values) {
+        // normalize the date value
+        if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+            long dateValue = values.getAsLong(WeatherEntry.COLUMN_DATE);
+            values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A reusable, column oriented buffer of weather rows for
+ * {@link WeatherRepository#ingest(WeatherRowBuffer)} and
+ * {@link WeatherProvider#ingest(WeatherRowBuffer, ArrayList)}.
+ *
+ * Each column is a primitive array, so adding a row stores its values without boxing them into
+ * a {@link ContentValues}.  The arrays only grow, so a buffer that is cleared and refilled on
+ * every sync stops allocating after the first one.
+ */
+public final class WeatherRowBuffer {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    int mSize;
+    long[] mLocationIds;
+    long[] mDates;
+    int[] mWeatherIds;
+    String[] mShortDescs;
+    double[] mMinTemps;
+    double[] mMaxTemps;
+    double[] mHumidities;
+    double[] mPressures;
+    double[] mWindSpeeds;
+    double[] mDegrees;
+
+    public WeatherRowBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public WeatherRowBuffer(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends a row.  The date is normalized when the row is ingested.
+     */
+    public void add(long locationId, long date, int weatherId, String shortDesc,
+                    double minTemp, double maxTemp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow(mSize * 2);
+        }
+        int i = mSize++;
+        mLocationIds[i] = locationId;
+        mDates[i] = date;
+        mWeatherIds[i] = weatherId;
+        mShortDescs[i] = shortDesc;
+        mMinTemps[i] = minTemp;
+        mMaxTemps[i] = maxTemp;
+        mHumidities[i] = humidity;
+        mPressures[i] = pressure;
+        mWindSpeeds[i] = windSpeed;
+        mDegrees[i] = degrees;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity for the next batch.
+     */
+    public void clear() {
+        // Let go of the descriptions so the buffer doesn't keep old strings alive
+        Arrays.fill(mShortDescs, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Builds the equivalent insert operations, for when the provider can only be reached through
+     * a {@link android.content.ContentResolver}.
+     */
+    public ArrayList<ContentProviderOperation> toInsertOperations() {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(toContentValues(i))
+                    .build());
+        }
+        return operations;
+    }
+
+    ContentValues toContentValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationIds[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, mShortDescs[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+        return values;
+    }
+
+    private void grow(int capacity) {
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+}
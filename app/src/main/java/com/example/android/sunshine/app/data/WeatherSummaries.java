@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SummaryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The weekly and monthly weather summaries behind {@link SummaryEntry}.
+ *
+ * Each location has one row in {@link #TABLE_DATA} per week and per month it has weather for,
+ * holding the day count and the minimum, maximum and sum of each measurement in the fixed point
+ * form {@link WeatherCodec} stores them in.  Triggers on the weather data rebuild the buckets a
+ * written day falls in, inside the statement that wrote it, so a summary never disagrees with
+ * the weather and reading one is a single lookup no matter how much history is kept.  A rebuild
+ * reads at most a month of one location, one range of the data table's primary key.
+ *
+ * Days deleted by retention are folded into {@link #TABLE_ARCHIVE} first, and a rebuild adds a
+ * bucket's archived days to the ones still stored, so the summaries keep the history the
+ * weather itself no longer does.  Any other delete takes its days out of the summaries.
+ *
+ * Buckets follow the device's local calendar, like the dates they group.  Weeks start on Monday.
+ */
+final class WeatherSummaries {
+
+    static final String TABLE_DATA = "weather_summary_data";
+    // What retention deleted from each bucket, in the same columns
+    static final String TABLE_ARCHIVE = "weather_summary_archive";
+
+    // Sums of the measurements over the bucket's days, in the scale WeatherCodec stores them in.
+    // The temperature sum adds each day's minimum and maximum.
+    static final String COLUMN_TEMP_SUM = "temp_sum_x100";
+    static final String COLUMN_MIN_TEMP = "min_x100";
+    static final String COLUMN_MAX_TEMP = "max_x100";
+    static final String COLUMN_MIN_HUMIDITY = "min_humidity_x100";
+    static final String COLUMN_MAX_HUMIDITY = "max_humidity_x100";
+    static final String COLUMN_HUMIDITY_SUM = "humidity_sum_x100";
+    static final String COLUMN_MIN_WIND_SPEED = "min_wind_x100";
+    static final String COLUMN_MAX_WIND_SPEED = "max_wind_x100";
+    static final String COLUMN_WIND_SPEED_SUM = "wind_sum_x100";
+
+    // The stored measurements, and how the days of a bucket combine into each
+    private static final String[] MEASUREMENT_COLUMNS = {
+            COLUMN_MIN_TEMP, COLUMN_MAX_TEMP, COLUMN_TEMP_SUM,
+            COLUMN_MIN_HUMIDITY, COLUMN_MAX_HUMIDITY, COLUMN_HUMIDITY_SUM,
+            COLUMN_MIN_WIND_SPEED, COLUMN_MAX_WIND_SPEED, COLUMN_WIND_SPEED_SUM};
+    private static final String[] MEASUREMENT_AGGREGATES = {
+            "MIN", "MAX", "SUM", "MIN", "MAX", "SUM", "MIN", "MAX", "SUM"};
+
+    private static final String MEASUREMENT_LIST =
+            COLUMN_MIN_TEMP + ", " + COLUMN_MAX_TEMP + ", " + COLUMN_TEMP_SUM + ", " +
+            COLUMN_MIN_HUMIDITY + ", " + COLUMN_MAX_HUMIDITY + ", " + COLUMN_HUMIDITY_SUM + ", " +
+            COLUMN_MIN_WIND_SPEED + ", " + COLUMN_MAX_WIND_SPEED + ", " + COLUMN_WIND_SPEED_SUM;
+    private static final String SUMMARY_COLUMNS = SummaryEntry.COLUMN_LOC_KEY + ", " +
+            SummaryEntry.COLUMN_PERIOD + ", " + SummaryEntry.COLUMN_START_DATE + ", " +
+            SummaryEntry.COLUMN_DAY_COUNT + ", " + MEASUREMENT_LIST;
+
+    // The day count and measurements of a group of weather data rows, named and ordered like
+    // the summary columns
+    private static final String DAY_AGGREGATES =
+            "COUNT(*) AS " + SummaryEntry.COLUMN_DAY_COUNT + ", " +
+            "MIN(" + WeatherCodec.COLUMN_MIN_TEMP + ") AS " + COLUMN_MIN_TEMP + ", " +
+            "MAX(" + WeatherCodec.COLUMN_MAX_TEMP + ") AS " + COLUMN_MAX_TEMP + ", " +
+            "SUM(" + WeatherCodec.COLUMN_MIN_TEMP + " + " + WeatherCodec.COLUMN_MAX_TEMP +
+            ") AS " + COLUMN_TEMP_SUM + ", " +
+            "MIN(" + WeatherCodec.COLUMN_HUMIDITY + ") AS " + COLUMN_MIN_HUMIDITY + ", " +
+            "MAX(" + WeatherCodec.COLUMN_HUMIDITY + ") AS " + COLUMN_MAX_HUMIDITY + ", " +
+            "SUM(" + WeatherCodec.COLUMN_HUMIDITY + ") AS " + COLUMN_HUMIDITY_SUM + ", " +
+            "MIN(" + WeatherCodec.COLUMN_WIND_SPEED + ") AS " + COLUMN_MIN_WIND_SPEED + ", " +
+            "MAX(" + WeatherCodec.COLUMN_WIND_SPEED + ") AS " + COLUMN_MAX_WIND_SPEED + ", " +
+            "SUM(" + WeatherCodec.COLUMN_WIND_SPEED + ") AS " + COLUMN_WIND_SPEED_SUM;
+
+    // Date modifiers that move a local date back to the start of its bucket.  A week goes
+    // forward to the next Sunday, unless it is one, then back to that week's Monday.
+    private static final String WEEK_START = "'weekday 0', '-6 days'";
+    private static final String MONTH_START = "'start of month'";
+
+    // The _id the view gives a summary: the location above the period above the start date in
+    // seconds, so a week and a month starting on the same day still differ.
+    private static final String ROW_ID_SQL = "((" + SummaryEntry.COLUMN_LOC_KEY + " << 33) | ((" +
+            SummaryEntry.COLUMN_PERIOD + " = '" + SummaryEntry.PERIOD_MONTH + "') << 32) | ((" +
+            SummaryEntry.COLUMN_START_DATE + " / 1000) & 4294967295))";
+
+    private WeatherSummaries() {
+    }
+
+    static String createDataTable() {
+        return createTable(TABLE_DATA);
+    }
+
+    static String createArchiveTable() {
+        return createTable(TABLE_ARCHIVE);
+    }
+
+    private static String createTable(String name) {
+        return "CREATE TABLE " + name + " (" +
+                SummaryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                SummaryEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                SummaryEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                SummaryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                COLUMN_MIN_TEMP + " INTEGER NOT NULL, " +
+                COLUMN_MAX_TEMP + " INTEGER NOT NULL, " +
+                COLUMN_TEMP_SUM + " INTEGER NOT NULL, " +
+                COLUMN_MIN_HUMIDITY + " INTEGER NOT NULL, " +
+                COLUMN_MAX_HUMIDITY + " INTEGER NOT NULL, " +
+                COLUMN_HUMIDITY_SUM + " INTEGER NOT NULL, " +
+                COLUMN_MIN_WIND_SPEED + " INTEGER NOT NULL, " +
+                COLUMN_MAX_WIND_SPEED + " INTEGER NOT NULL, " +
+                COLUMN_WIND_SPEED_SUM + " INTEGER NOT NULL, " +
+
+                // A location's summaries for one period are a single range, in date order
+                " PRIMARY KEY (" + SummaryEntry.COLUMN_LOC_KEY + ", " +
+                SummaryEntry.COLUMN_PERIOD + ", " +
+                SummaryEntry.COLUMN_START_DATE + "))" +
+                // WITHOUT ROWID needs SQLite 3.8.2, which shipped with Lollipop
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? " WITHOUT ROWID;" : ";");
+    }
+
+    static String createSummaryView() {
+        return "CREATE VIEW " + SummaryEntry.TABLE_NAME + " AS SELECT " +
+                ROW_ID_SQL + " AS " + SummaryEntry._ID + ", " +
+                SummaryEntry.COLUMN_LOC_KEY + ", " +
+                SummaryEntry.COLUMN_PERIOD + ", " +
+                SummaryEntry.COLUMN_START_DATE + ", " +
+                SummaryEntry.COLUMN_DAY_COUNT + ", " +
+                decode(COLUMN_MIN_TEMP, WeatherCodec.TEMP_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MIN_TEMP + ", " +
+                decode(COLUMN_MAX_TEMP, WeatherCodec.TEMP_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MAX_TEMP + ", " +
+                mean(COLUMN_TEMP_SUM, 2 * WeatherCodec.TEMP_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MEAN_TEMP + ", " +
+                decode(COLUMN_MIN_HUMIDITY, WeatherCodec.HUMIDITY_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MIN_HUMIDITY + ", " +
+                decode(COLUMN_MAX_HUMIDITY, WeatherCodec.HUMIDITY_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MAX_HUMIDITY + ", " +
+                mean(COLUMN_HUMIDITY_SUM, WeatherCodec.HUMIDITY_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MEAN_HUMIDITY + ", " +
+                decode(COLUMN_MIN_WIND_SPEED, WeatherCodec.WIND_SPEED_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MIN_WIND_SPEED + ", " +
+                decode(COLUMN_MAX_WIND_SPEED, WeatherCodec.WIND_SPEED_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MAX_WIND_SPEED + ", " +
+                mean(COLUMN_WIND_SPEED_SUM, WeatherCodec.WIND_SPEED_SCALE) + " AS " +
+                SummaryEntry.COLUMN_MEAN_WIND_SPEED +
+                " FROM " + TABLE_DATA + ";";
+    }
+
+    private static String decode(String storedColumn, int scale) {
+        return storedColumn + " / " + scale + ".0";
+    }
+
+    private static String mean(String sumColumn, int scale) {
+        return sumColumn + " / (" + scale + ".0 * " + SummaryEntry.COLUMN_DAY_COUNT + ")";
+    }
+
+    /**
+     * Creates the triggers that keep the summaries in step with the weather data.
+     */
+    static void createTriggers(SQLiteDatabase db) {
+        // A row replaced on conflict fires no delete trigger, but it keeps its location and
+        // date, so rebuilding the new row's buckets covers the old one too.
+        db.execSQL("CREATE TRIGGER weather_insert_summary AFTER INSERT ON " +
+                WeatherCodec.TABLE_DATA + " BEGIN " + rebuildBuckets("NEW") + "END;");
+        db.execSQL("CREATE TRIGGER weather_update_summary AFTER UPDATE ON " +
+                WeatherCodec.TABLE_DATA + " BEGIN " + rebuildBuckets("OLD") +
+                rebuildBuckets("NEW") + "END;");
+        db.execSQL("CREATE TRIGGER weather_delete_summary AFTER DELETE ON " +
+                WeatherCodec.TABLE_DATA + " BEGIN " + rebuildBuckets("OLD") + "END;");
+        // The archive has no weather left to be deleted with, so the summaries go with their
+        // location instead
+        final String location = SummaryEntry.COLUMN_LOC_KEY + " = OLD." + LocationEntry._ID;
+        db.execSQL("CREATE TRIGGER location_delete_summary AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_ARCHIVE + " WHERE " +
+                location + "; DELETE FROM " + TABLE_DATA + " WHERE " + location + "; END;");
+    }
+
+    /**
+     * Adds the days the selection matches to the archive, so their buckets keep them once
+     * they're deleted.  Call it just before deleting them, in the same transaction, and only
+     * for days deleted because their location no longer keeps them, each of which is archived
+     * once.
+     *
+     * @param selection a selection on the weather view, as given to the delete
+     */
+    static void archive(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        archive(db, SummaryEntry.PERIOD_WEEK, WEEK_START, "+7 days", selection, selectionArgs);
+        archive(db, SummaryEntry.PERIOD_MONTH, MONTH_START, "+1 month", selection,
+                selectionArgs);
+    }
+
+    //INSERT OR REPLACE INTO weather_summary_archive (...) SELECT pruned.location_id, 'week',
+    //pruned.start_date, pruned.days + IFNULL(archived.days, 0), ... FROM (SELECT location_id,
+    //<start> AS start_date, COUNT(*) AS days, ... FROM weather_data WHERE <selection>
+    //GROUP BY location_id, start_date) AS pruned LEFT JOIN weather_summary_archive AS archived
+    //ON archived.location_id = pruned.location_id AND archived.period = 'week'
+    //AND archived.start_date = pruned.start_date;
+    private static void archive(SQLiteDatabase db, String period, String periodStart,
+                                String length, String selection, String[] selectionArgs) {
+        final StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(TABLE_ARCHIVE).append(" (").append(SUMMARY_COLUMNS).append(") SELECT ")
+                .append("pruned.").append(SummaryEntry.COLUMN_LOC_KEY).append(", '")
+                .append(period).append("', pruned.").append(SummaryEntry.COLUMN_START_DATE)
+                .append(", pruned.").append(SummaryEntry.COLUMN_DAY_COUNT)
+                .append(" + IFNULL(archived.").append(SummaryEntry.COLUMN_DAY_COUNT)
+                .append(", 0)");
+        for (int i = 0; i < MEASUREMENT_COLUMNS.length; i++) {
+            final String pruned = "pruned." + MEASUREMENT_COLUMNS[i];
+            final String archived = "archived." + MEASUREMENT_COLUMNS[i];
+            sql.append(", ");
+            if ("SUM".equals(MEASUREMENT_AGGREGATES[i])) {
+                sql.append(pruned).append(" + IFNULL(").append(archived).append(", 0)");
+            } else {
+                sql.append(MEASUREMENT_AGGREGATES[i]).append("(").append(pruned)
+                        .append(", IFNULL(").append(archived).append(", ").append(pruned)
+                        .append("))");
+            }
+        }
+        sql.append(" FROM (SELECT ").append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append(bucketStart(WeatherEntry.COLUMN_DATE, periodStart, null)).append(" AS ")
+                .append(SummaryEntry.COLUMN_START_DATE).append(", ").append(DAY_AGGREGATES)
+                .append(" FROM ").append(WeatherCodec.TABLE_DATA).append(" WHERE ")
+                .append(WeatherCodec.whereMatching(selection))
+                .append(" GROUP BY ").append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append(SummaryEntry.COLUMN_START_DATE).append(") AS pruned")
+                .append(" LEFT JOIN ").append(TABLE_ARCHIVE).append(" AS archived ON ")
+                .append("archived.").append(SummaryEntry.COLUMN_LOC_KEY).append(" = pruned.")
+                .append(SummaryEntry.COLUMN_LOC_KEY).append(" AND archived.")
+                .append(SummaryEntry.COLUMN_PERIOD).append(" = '").append(period)
+                .append("' AND archived.").append(SummaryEntry.COLUMN_START_DATE)
+                .append(" = pruned.").append(SummaryEntry.COLUMN_START_DATE);
+        db.execSQL(sql.toString(), null == selectionArgs ? new Object[0] : selectionArgs);
+    }
+
+    // Rebuilds the week and month the given trigger row falls in
+    private static String rebuildBuckets(String row) {
+        final String date = row + "." + WeatherEntry.COLUMN_DATE;
+        return rebuildBucket(row, SummaryEntry.PERIOD_WEEK, bucketStart(date, WEEK_START, null),
+                bucketStart(date, WEEK_START, "+7 days")) +
+                rebuildBucket(row, SummaryEntry.PERIOD_MONTH,
+                        bucketStart(date, MONTH_START, null),
+                        bucketStart(date, MONTH_START, "+1 month"));
+    }
+
+    // Local midnight at the start of the bucket the date falls in, or at its end when given the
+    // bucket's length, in millis like the stored dates
+    private static String bucketStart(String date, String periodStart, String length) {
+        return "(strftime('%s', date(" + date + " / 1000, 'unixepoch', 'localtime', " +
+                periodStart + ")" + (null == length ? "" : ", '" + length + "'") +
+                ", 'utc') * 1000)";
+    }
+
+    //DELETE FROM weather_summary_data WHERE location_id = NEW.location_id AND period = 'week'
+    //AND start_date = <start>;
+    //INSERT INTO weather_summary_data (...) SELECT location_id, 'week', <start>, SUM(days), ...
+    //FROM (SELECT location_id, COUNT(*) AS days, ... FROM weather_data
+    //WHERE location_id = NEW.location_id AND date >= <start> AND date < <end>
+    //GROUP BY location_id UNION ALL SELECT location_id, days, ... FROM weather_summary_archive
+    //WHERE location_id = NEW.location_id AND period = 'week' AND start_date = <start>)
+    //GROUP BY location_id;
+    private static String rebuildBucket(String row, String period, String start, String end) {
+        final String location = row + "." + WeatherEntry.COLUMN_LOC_KEY;
+        final String bucket = SummaryEntry.COLUMN_LOC_KEY + " = " + location + " AND " +
+                SummaryEntry.COLUMN_PERIOD + " = '" + period + "' AND " +
+                SummaryEntry.COLUMN_START_DATE + " = " + start;
+        final StringBuilder combined = new StringBuilder();
+        for (int i = 0; i < MEASUREMENT_COLUMNS.length; i++) {
+            combined.append(", ").append(MEASUREMENT_AGGREGATES[i]).append("(")
+                    .append(MEASUREMENT_COLUMNS[i]).append(")");
+        }
+
+        // Grouping leaves no row behind when the bucket's last day is gone, and nothing in
+        // the archive either
+        return "DELETE FROM " + TABLE_DATA + " WHERE " + bucket + "; " +
+                "INSERT INTO " + TABLE_DATA + " (" + SUMMARY_COLUMNS + ") SELECT " +
+                SummaryEntry.COLUMN_LOC_KEY + ", '" + period + "', " + start + ", " +
+                "SUM(" + SummaryEntry.COLUMN_DAY_COUNT + ")" + combined +
+                " FROM (SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " + DAY_AGGREGATES +
+                " FROM " + WeatherCodec.TABLE_DATA + " WHERE " +
+                WeatherEntry.COLUMN_LOC_KEY + " = " + location + " AND " +
+                WeatherEntry.COLUMN_DATE + " >= " + start + " AND " +
+                WeatherEntry.COLUMN_DATE + " < " + end +
+                " GROUP BY " + WeatherEntry.COLUMN_LOC_KEY +
+                " UNION ALL SELECT " + SummaryEntry.COLUMN_LOC_KEY + ", " +
+                SummaryEntry.COLUMN_DAY_COUNT + ", " + MEASUREMENT_LIST +
+                " FROM " + TABLE_ARCHIVE + " WHERE " + bucket + ")" +
+                " GROUP BY " + SummaryEntry.COLUMN_LOC_KEY + "; ";
+    }
+}
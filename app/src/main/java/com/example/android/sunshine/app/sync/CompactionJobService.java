@@ -0,0 +1,73 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+
+import com.example.android.sunshine.app.data.WeatherCompactor;
+
+/**
+ * Runs the {@link WeatherCompactor} once a day while the device is idle and charging, so the
+ * vacuum never competes with the user for the disk or the battery.  Devices without a job
+ * scheduler compact from the sync adapter instead.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CompactionJobService extends JobService {
+    private static final int COMPACTION_JOB_ID = 4001;
+    private static final long COMPACTION_PERIOD_MILLIS = 24 * 60 * 60 * 1000;
+
+    private AsyncTask<JobParameters, Void, JobParameters> mCompactionTask;
+
+    /**
+     * Schedules the daily compaction, unless it already is.
+     */
+    public static void schedule(Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == COMPACTION_JOB_ID) {
+                return;
+            }
+        }
+        jobScheduler.schedule(new JobInfo.Builder(COMPACTION_JOB_ID,
+                new ComponentName(context, CompactionJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(COMPACTION_PERIOD_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mCompactionTask = new AsyncTask<JobParameters, Void, JobParameters>() {
+            @Override
+            protected JobParameters doInBackground(JobParameters... params) {
+                WeatherCompactor.requestCompaction(CompactionJobService.this);
+                return params[0];
+            }
+
+            @Override
+            protected void onPostExecute(JobParameters params) {
+                jobFinished(params, false);
+            }
+        };
+        mCompactionTask.execute(params);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // A vacuum can't be interrupted half way, so let it finish and try again tomorrow
+        if (mCompactionTask != null) {
+            mCompactionTask.cancel(false);
+        }
+        return false;
+    }
+}
@@ -8,18 +8,17 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -27,15 +26,19 @@ import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.SunshineCalendar;
+import com.example.android.sunshine.app.data.TodayWeather;
+import com.example.android.sunshine.app.data.WeatherCompactor;
+import com.example.android.sunshine.app.data.WeatherRepository;
+import com.example.android.sunshine.app.data.WeatherRowBuffer;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
@@ -55,7 +58,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
@@ -69,20 +71,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -93,6 +81,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Reused by every sync, so parsing a forecast stops allocating once it has grown to size
+    private final WeatherRowBuffer mRowBuffer = new WeatherRowBuffer();
+
     SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
@@ -207,6 +198,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 }
             }
         }
+
+        // Without a job scheduler, a sync that happens on the charger stands in for the idle
+        // maintenance window.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP
+                && isCharging(context) && WeatherCompactor.isCompactionDue(context)) {
+            WeatherCompactor.requestCompaction(context);
+        }
+    }
+
+    private static boolean isCharging(Context context) {
+        Intent batteryStatus = context.registerReceiver(
+                null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return batteryStatus != null
+                && batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
     }
 
     /**
@@ -283,10 +288,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+            // The forecast is buffered, then written together with the location, if it's new,
+            // and the removal of old days as one batch, which the repository applies in a single
+            // transaction with a single change notification at the end.
+            WeatherRowBuffer rows = mRowBuffer;
+            rows.clear();
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -296,14 +302,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // current day, we're going to take advantage of that to get a nice
             // normalized UTC date for all of our weather.
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            int julianStartDay = SunshineCalendar.getTodayJulianDay();
 
             for(int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -323,7 +323,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+                dateTime = SunshineCalendar.getDayStart(julianStartDay+i);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -343,40 +343,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 high = temperatureObject.getDouble(OWM_MAX);
                 low = temperatureObject.getDouble(OWM_MIN);
 
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+                // Filed under the location's row id when it's ingested
+                rows.add(-1, dateTime, weatherId, description, low, high, humidity,
+                        pressure, windSpeed, windDirection);
             }
 
-            int inserted = 0;
+            int inserted = rows.size();
             // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+            if ( inserted > 0 ) {
+                // Ingesting also deletes old data so we don't build up an endless history.  Other
+                // locations are trimmed by the periodic compaction.
+                WeatherRepository.getInstance(getContext()).ingest(
+                        locationSetting, cityName, cityLatitude, cityLongitude, rows);
+                rows.clear();
 
                 updateWidgets();
                 updateMuzei();
                 notifyWeather();
                 notifyWear();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
+            Log.d(LOG_TAG, "Sync Complete. " + inserted + " Inserted");
             setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
         } catch (JSONException e) {
@@ -421,16 +407,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                // One row of today's weather, straight from the repository's memory after a sync
+                TodayWeather today = TodayWeather.query(context, locationQuery);
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor != null && cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null && today.isToday()) {
+                    int weatherId = today.getWeatherId();
+                    double high = today.getMaxTemp();
+                    double low = today.getMinTemp();
+                    String desc = today.getDescription();
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -506,7 +490,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.apply();
                 }
-                cursor.close();
             }
         }
     }
@@ -519,16 +502,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         final String LOW_TEMPERATURE = "LOW_TEMPERATURE";
 
         String locationQuery = Utility.getPreferredLocation(getContext());
-        Uri weatherUri = WeatherContract.WeatherEntry
-                .buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = getContext().getContentResolver()
-                .query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+        TodayWeather today = TodayWeather.query(getContext(), locationQuery);
 
-        if (cursor != null && cursor.moveToFirst()) {
+        // The client is made by MainActivity once its first frame is up
+        if (today != null && today.isToday() && MainActivity.mGoogleApiClient != null) {
 
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
+            int weatherId = today.getWeatherId();
+            double high = today.getMaxTemp();
+            double low = today.getMinTemp();
 
             PutDataMapRequest dataMap = PutDataMapRequest.create(WEATHER_PATH);
             dataMap.getDataMap().putString(HIGH_TEMPERATURE, Double.toString(high));
@@ -550,63 +531,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                         }
                     });
         }
-        if (cursor != null) {
-            cursor.close();
-        }
-    }
-
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    private long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId = 0;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor != null) {
-            if (locationCursor.moveToFirst()) {
-                int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-                locationId = locationCursor.getLong(locationIdIndex);
-            } else {
-                // Now that the content provider is set up, inserting rows of data is pretty simple.
-                // First create a ContentValues object to hold the data you want to insert.
-                ContentValues locationValues = new ContentValues();
-
-                // Then add the data, along with the corresponding name of the data type,
-                // so the content provider knows what kind of value is being inserted.
-                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-                // Finally, insert location data into the database.
-                Uri insertedUri = getContext().getContentResolver().insert(
-                        WeatherContract.LocationEntry.CONTENT_URI,
-                        locationValues
-                );
-
-                // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-                locationId = ContentUris.parseId(insertedUri);
-            }
-        }
-
-        if (locationCursor != null) {
-            locationCursor.close();
-        }
-        // Wait, that worked?  Yes!
-        return locationId;
     }
 
     /**
@@ -698,6 +622,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            CompactionJobService.schedule(context);
+        }
     }
 
     /**
@@ -711,5 +638,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.apply();
+        // Read back by the rest of the sync before the main thread hears of it
+        SunshineSettings.refresh(c);
     }
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.condition;
+
+/**
+ * What Sunshine shows for each OpenWeatherMap condition code, shared by the phone app and the
+ * watch face so the two can't drift apart.
+ *
+ * The codes are looked up in one table covering every code from {@link #MIN_CODE} to
+ * {@link #MAX_CODE}, built once when the class loads.  Resource ids differ from module to
+ * module, so the table holds the art as one of the ART_ constants, which each module maps to
+ * its own drawables.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherCondition {
+
+    public static final int MIN_CODE = 200;
+    public static final int MAX_CODE = 962;
+
+    // The kinds of art there are, in the order of the modules' drawable tables
+    public static final int ART_NONE = -1;
+    public static final int ART_STORM = 0;
+    public static final int ART_LIGHT_RAIN = 1;
+    public static final int ART_RAIN = 2;
+    public static final int ART_SNOW = 3;
+    public static final int ART_FOG = 4;
+    public static final int ART_CLEAR = 5;
+    public static final int ART_LIGHT_CLOUDS = 6;
+    public static final int ART_CLOUDS = 7;
+    public static final int ART_COUNT = 8;
+
+    // The name of each kind of art in the art packs' urls
+    private static final String[] ART_NAMES = {"storm", "light_rain", "rain", "snow", "fog",
+            "clear", "light_clouds", "clouds"};
+
+    private static final String IMAGE_BASE_URL = "http://upload.wikimedia.org/wikipedia/commons/";
+
+    // Indexed by code - MIN_CODE.  Null for codes Sunshine has no art for.
+    private static final WeatherCondition[] BY_CODE = new WeatherCondition[MAX_CODE - MIN_CODE + 1];
+
+    static {
+        WeatherCondition rain = new WeatherCondition(ART_RAIN, "6/6c/Rain-on-Thassos.jpg");
+        WeatherCondition snow = new WeatherCondition(ART_SNOW, "b/b8/Fresh_snow.JPG");
+
+        put(200, 232, new WeatherCondition(ART_STORM,
+                "2/28/Thunderstorm_in_Annemasse,_France.jpg"));
+        put(300, 321, new WeatherCondition(ART_LIGHT_RAIN, "a/a0/Rain_on_leaf_504605006.jpg"));
+        put(500, 504, rain);
+        put(511, 511, snow);
+        put(520, 531, rain);
+        put(600, 622, snow);
+        // 761, dust, is in the fog range; 762 and 771 have no art
+        put(701, 761, new WeatherCondition(ART_FOG,
+                "e/e6/Westminster_fog_-_London_-_UK.jpg"));
+        put(781, 781, new WeatherCondition(ART_STORM,
+                "d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg"));
+        put(800, 800, new WeatherCondition(ART_CLEAR,
+                "7/7e/A_few_trees_and_the_sun_(6009964513).jpg"));
+        put(801, 801, new WeatherCondition(ART_LIGHT_CLOUDS,
+                "e/e7/Cloudy_Blue_Sky_(5031259890).jpg"));
+        put(802, 804, new WeatherCondition(ART_CLOUDS,
+                "5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"));
+    }
+
+    private final int mArt;
+    private final String mImageUrl;
+
+    private WeatherCondition(int art, String imagePath) {
+        mArt = art;
+        mImageUrl = IMAGE_BASE_URL + imagePath;
+    }
+
+    private static void put(int firstCode, int lastCode, WeatherCondition condition) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            BY_CODE[code - MIN_CODE] = condition;
+        }
+    }
+
+    private static WeatherCondition forCode(int weatherId) {
+        return weatherId >= MIN_CODE && weatherId <= MAX_CODE ? BY_CODE[weatherId - MIN_CODE] : null;
+    }
+
+    /**
+     * @return one of the ART_ constants, {@link #ART_NONE} if there's no art for the code.
+     */
+    public static int getArt(int weatherId) {
+        WeatherCondition condition = forCode(weatherId);
+        return condition != null ? condition.mArt : ART_NONE;
+    }
+
+    /**
+     * @return the name the art packs give the art of one of the ART_ constants.
+     */
+    public static String getArtName(int art) {
+        return ART_NAMES[art];
+    }
+
+    /**
+     * @return a photo for the condition, null if there's none.
+     */
+    public static String getImageUrl(int weatherId) {
+        WeatherCondition condition = forCode(weatherId);
+        return condition != null ? condition.mImageUrl : null;
+    }
+}